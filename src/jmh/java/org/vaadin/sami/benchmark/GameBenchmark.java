@@ -0,0 +1,112 @@
+package org.vaadin.sami.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.sami.tetris.Bot;
+import org.vaadin.sami.tetris.Game;
+import org.vaadin.sami.tetris.Grid;
+import org.vaadin.sami.tetris.Input;
+import org.vaadin.sami.tetris.PieceGenerator;
+import org.vaadin.sami.tetris.Simulator;
+
+/**
+ * Benchmarks for the game operations run on every tick and input.
+ *
+ * Run with the gc profiler to see the allocations per operation:
+ * mvn -Pbenchmark compile exec:exec -Djmh.args="GameBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+
+	private static final int W = 10;
+	private static final int H = 20;
+
+	private Game game;
+	private Grid frame;
+	private Game botGame;
+	private Bot bot;
+	private long seed;
+
+	@Setup
+	public void setup() {
+		game = new Game(W, H, PieceGenerator.bag(seed++));
+		frame = new Grid(W, H);
+		botGame = new Game(W, H, PieceGenerator.bag(seed++));
+		bot = new Bot();
+	}
+
+	private Game running() {
+		if (game.isOver())
+			game = new Game(W, H, PieceGenerator.bag(seed++));
+		return game;
+	}
+
+	@Benchmark
+	public boolean step() {
+		return running().step();
+	}
+
+	@Benchmark
+	public boolean dropAndStep() {
+		Game g = running();
+		g.drop();
+		return g.step();
+	}
+
+	@Benchmark
+	public int ghost() {
+		return running().getGhostY();
+	}
+
+	@Benchmark
+	public Game rotate() {
+		Game g = running();
+		g.rotateCW();
+		return g;
+	}
+
+	@Benchmark
+	public Grid currentState() {
+		return running().getCurrentState();
+	}
+
+	@Benchmark
+	public Grid currentStateReused() {
+		return running().getCurrentState(frame);
+	}
+
+	/** Bot search and moves for one piece, should not allocate. */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean botMove() {
+		if (botGame.isOver())
+			botGame = new Game(W, H, PieceGenerator.bag(seed++));
+		Input input;
+		while ((input = bot.nextInput(botGame)) != null)
+			botGame.apply(input);
+		return botGame.step();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int randomGame() {
+		Game g = new Game(W, H, PieceGenerator.bag(seed));
+		return Simulator.playRandom(g, seed++, 3, 10_000)
+				.getScore();
+	}
+}
@@ -0,0 +1,88 @@
+package org.vaadin.sami.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.sami.tetris.Grid;
+import org.vaadin.sami.tetris.Playfield;
+import org.vaadin.sami.tetris.Tetromino;
+
+/**
+ * Benchmarks for the grid operations used on every game step.
+ *
+ * Run with the gc profiler to see the allocations per operation:
+ * mvn -Pbenchmark compile exec:exec -Djmh.args="GridBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GridBenchmark {
+
+	private static final int W = 10;
+	private static final int H = 20;
+
+	private Grid grid;
+	private Playfield playfield;
+	private Tetromino piece;
+
+	@Setup
+	public void setup() {
+		grid = new Grid(W, H);
+		playfield = new Playfield(W, H);
+		// Some garbage at the bottom with a hole in every row
+		for (int y = H - 8; y < H; y++)
+			for (int x = 0; x < W; x++)
+				if (x != y % W) {
+					grid.set(x, y, 1);
+					playfield.set(x, y, 1);
+				}
+		piece = Tetromino.getRotated(6, 1);
+	}
+
+	@Benchmark
+	public boolean fitsIntoGrid() {
+		return grid.fitsInto(piece, 4, H - 10);
+	}
+
+	@Benchmark
+	public boolean fitsIntoPlayfield() {
+		return playfield.fitsInto(piece, 4, H - 10);
+	}
+
+	@Benchmark
+	public Grid copyGrid() {
+		return new Grid(playfield);
+	}
+
+	@Benchmark
+	public Playfield copyPiece() {
+		playfield.copy(piece, 4, 0);
+		playfield.fill(4, 0, 3, 3, 0);
+		return playfield;
+	}
+
+	@Benchmark
+	public Playfield clearFourLines() {
+		playfield.fill(0, H - 4, W, 4, 1);
+		playfield.clearFullRows(H - 4, H);
+		return playfield;
+	}
+
+	@Benchmark
+	public Tetromino rotate() {
+		piece = piece.rotatedCW();
+		return piece;
+	}
+}
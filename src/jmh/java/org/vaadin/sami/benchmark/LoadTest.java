@@ -0,0 +1,357 @@
+package org.vaadin.sami.benchmark;
+
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.shared.Registration;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.vaadin.sami.javaday.Broadcast;
+import org.vaadin.sami.javaday.FrameHandoff;
+import org.vaadin.sami.javaday.PushStage;
+import org.vaadin.sami.metrics.Histogram;
+import org.vaadin.sami.metrics.Metric;
+import org.vaadin.sami.metrics.Metrics;
+import org.vaadin.sami.tetris.Game;
+import org.vaadin.sami.tetris.GameLoop;
+import org.vaadin.sami.tetris.GameSession;
+import org.vaadin.sami.tetris.Grid;
+import org.vaadin.sami.tetris.Input;
+import org.vaadin.sami.tetris.PieceGenerator;
+
+/**
+ * Capacity test that runs many game sessions in one JVM.
+ *
+ * Every simulated player runs a {@link GameSession} in the shared
+ * {@link GameLoop}, like TetrisView does, and sends random inputs at a human
+ * rate. The frames are handed off with the same {@link FrameHandoff} as in
+ * TetrisView: the game loop takes the changed rows into it, and a
+ * {@link PushStage} takes them under a lock of the player, which stands in
+ * for the session lock. The drawing is a model of TetrisView's: the changed
+ * rows are encoded into the tile delta sent in the client rendering mode,
+ * for the whole board instead of a viewport, and published to the player's
+ * {@link Broadcast}, which is watched by simulated spectators. So the cost
+ * of the game loop, the hand-off, the encoding and the broadcast is
+ * included, but not that of the Vaadin UI and push, nor the viewport,
+ * server rendering and idle pausing of TetrisView. A player whose game ends
+ * starts a new one.
+ *
+ * A line of throughput, tick lag, heap and thread figures is printed every
+ * few seconds, and a summary at the end. Run with:
+ * mvn -Pbenchmark compile exec:exec -Dbenchmark.main=org.vaadin.sami.benchmark.LoadTest -Djmh.args="sessions=5000 duration=120"
+ *
+ * Arguments, all optional:
+ * <ul>
+ * <li>sessions: number of players, default 1000</li>
+ * <li>duration: length of the test in seconds, default 60</li>
+ * <li>rampup: seconds to start all the players in, default 10</li>
+ * <li>tick: time between game steps in milliseconds, default 500</li>
+ * <li>inputs: average inputs per second per player, default 4</li>
+ * <li>spectators: spectators watching each player, default 1</li>
+ * <li>interval: seconds between report lines, default 5</li>
+ * <li>report: file to write the summary to</li>
+ * </ul>
+ */
+public class LoadTest {
+
+	private static final int W = 10;
+	private static final int H = 20;
+
+	private static final Input[] INPUTS = { Input.MOVE_LEFT, Input.MOVE_RIGHT,
+			Input.ROTATE_CW, Input.ROTATE_CCW, Input.DROP, Input.SOFT_DROP };
+
+	private final int sessions;
+	private final int durationSeconds;
+	private final int rampUpSeconds;
+	private final int tickMillis;
+	private final double inputsPerSecond;
+	private final int spectators;
+	private final int intervalSeconds;
+	private final Path report;
+
+	private final GameLoop loop = GameLoop.getShared();
+	private final ScheduledThreadPoolExecutor players;
+	private final List<Player> running = new ArrayList<>();
+	private final AtomicInteger started = new AtomicInteger();
+
+	private final LongAdder frames = new LongAdder();
+	private final LongAdder inputs = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder games = new LongAdder();
+	private final LongAdder spectatorFrames = new LongAdder();
+	private final LongAdder spectatorBytes = new LongAdder();
+	private final Histogram frameTime = new Histogram();
+	private final Histogram drainTime = new Histogram();
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private long maxHeap;
+	private int maxThreads;
+
+	public LoadTest(Map<String, String> args) {
+		sessions = Integer.parseInt(args.getOrDefault("sessions", "1000"));
+		durationSeconds = Integer.parseInt(args.getOrDefault("duration", "60"));
+		rampUpSeconds = Integer.parseInt(args.getOrDefault("rampup", "10"));
+		tickMillis = Integer.parseInt(args.getOrDefault("tick", "500"));
+		inputsPerSecond = Double.parseDouble(args.getOrDefault("inputs", "4"));
+		spectators = Integer.parseInt(args.getOrDefault("spectators", "1"));
+		intervalSeconds = Integer.parseInt(args.getOrDefault("interval", "5"));
+		report = args.containsKey("report") ? Path.of(args.get("report")) : null;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		players = new ScheduledThreadPoolExecutor(2, r -> {
+			Thread t = new Thread(r, "load-input-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("Expected key=value: " + arg);
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		new LoadTest(options).run();
+		System.exit(0);
+	}
+
+	/** Run the test and print the report. */
+	public void run() throws InterruptedException, IOException {
+		System.out.printf("Load test: %d sessions, %d s (%d s ramp-up), tick %d ms, %.1f inputs/s, %d spectators each%n",
+				sessions, durationSeconds, rampUpSeconds, tickMillis, inputsPerSecond, spectators);
+		System.out.println("time s  sessions  frames/s  inputs/s  KB/s  "
+				+ "lag p50 ms  lag p99 ms  lag max ms  frame p99 us  heap MB  threads");
+
+		long start = System.nanoTime();
+		long rampNanos = TimeUnit.SECONDS.toNanos(rampUpSeconds);
+		long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long nextReport = start + TimeUnit.SECONDS.toNanos(intervalSeconds);
+		long lastFrames = 0, lastInputs = 0, lastBytes = 0, lastReport = start;
+
+		while (System.nanoTime() < end) {
+			// Start the players evenly over the ramp-up
+			long elapsed = System.nanoTime() - start;
+			int target = rampNanos == 0 ? sessions
+					: (int) Math.min(sessions, sessions * elapsed / rampNanos);
+			while (started.get() < target) {
+				Player player = new Player();
+				running.add(player);
+				started.incrementAndGet();
+				player.start();
+			}
+
+			sampleResources();
+			long now = System.nanoTime();
+			if (now >= nextReport) {
+				double seconds = (now - lastReport) / 1e9;
+				long f = frames.sum(), i = inputs.sum(), b = bytes.sum();
+				Histogram lag = Metrics.global().getHistogram(Metric.TICK_LAG_NS);
+				System.out.printf("%6.0f  %8d  %8.0f  %8.0f  %4.0f  %10.1f  %10.1f  %10.1f  %12.1f  %7d  %7d%n",
+						(now - start) / 1e9, started.get(),
+						(f - lastFrames) / seconds, (i - lastInputs) / seconds,
+						(b - lastBytes) / seconds / 1024,
+						lag.getPercentile(0.5) / 1e6, lag.getPercentile(0.99) / 1e6,
+						lag.getMax() / 1e6, frameTime.getPercentile(0.99) / 1e3,
+						memory.getHeapMemoryUsage().getUsed() >> 20,
+						threads.getThreadCount());
+				lastFrames = f;
+				lastInputs = i;
+				lastBytes = b;
+				lastReport = now;
+				nextReport += TimeUnit.SECONDS.toNanos(intervalSeconds);
+			}
+			Thread.sleep(50);
+		}
+
+		running.forEach(Player::stop);
+		players.shutdownNow();
+		String summary = summary((System.nanoTime() - start) / 1e9);
+		System.out.print(summary);
+		if (report != null) {
+			Files.writeString(report, summary);
+			System.out.println("Report written to " + report);
+		}
+	}
+
+	private void sampleResources() {
+		maxHeap = Math.max(maxHeap, memory.getHeapMemoryUsage().getUsed());
+		maxThreads = Math.max(maxThreads, threads.getThreadCount());
+	}
+
+	private String summary(double seconds) {
+		Histogram lag = Metrics.global().getHistogram(Metric.TICK_LAG_NS);
+		Histogram step = Metrics.global().getHistogram(Metric.STEP_TIME_NS);
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("%nSummary%n"));
+		s.append(String.format("sessions            %d%n", sessions));
+		s.append(String.format("duration s          %.0f%n", seconds));
+		s.append(String.format("games played        %d%n", games.sum()));
+		s.append(String.format("ticks/s             %.0f%n", lag.getCount() / seconds));
+		s.append(String.format("frames/s            %.0f%n", frames.sum() / seconds));
+		s.append(String.format("inputs/s            %.0f%n", inputs.sum() / seconds));
+		s.append(String.format("payload KB/s        %.0f%n", bytes.sum() / seconds / 1024));
+		s.append(String.format("tick lag ms         mean %.2f  p50 %.2f  p99 %.2f  max %.2f%n",
+				lag.getMean() / 1e6, lag.getPercentile(0.5) / 1e6,
+				lag.getPercentile(0.99) / 1e6, lag.getMax() / 1e6));
+		s.append(String.format("step us             mean %.2f  p99 %.2f%n",
+				step.getMean() / 1e3, step.getPercentile(0.99) / 1e3));
+		s.append(String.format("spectator frames/s  %.0f%n", spectatorFrames.sum() / seconds));
+		s.append(String.format("spectator KB/s      %.0f%n", spectatorBytes.sum() / seconds / 1024));
+		s.append(String.format("frame us            mean %.2f  p99 %.2f%n",
+				frameTime.getMean() / 1e3, frameTime.getPercentile(0.99) / 1e3));
+		s.append(String.format("drain us            mean %.2f  p99 %.2f%n",
+				drainTime.getMean() / 1e3, drainTime.getPercentile(0.99) / 1e3));
+		s.append(String.format("max heap used MB    %d%n", maxHeap >> 20));
+		s.append(String.format("max threads         %d%n", maxThreads));
+		return s.toString();
+	}
+
+	/**
+	 * A simulated player: a game session, the frame hand-off of TetrisView
+	 * and a model of its drawing, a broadcast with its spectators, and
+	 * random inputs.
+	 */
+	private class Player {
+
+		private final Metrics metrics = Metrics.createSession();
+		private final Object sessionLock = new Object();
+		private final PushStage push = new PushStage(locked(sessionLock),
+				this::drawFrame, () -> {
+				});
+		private final Broadcast broadcast = Broadcast.open();
+		private final List<Registration> watchers = new ArrayList<>();
+
+		private final FrameHandoff frameHandoff = new FrameHandoff();
+
+		// Used in the drain only
+		private final Grid shown = new Grid(W, H);
+		private final StringBuilder delta = new StringBuilder();
+
+		private volatile Game game;
+		private volatile GameSession session;
+		private volatile boolean stopped;
+
+		void start() {
+			for (int i = 0; i < spectators; i++)
+				watchers.add(broadcast.subscribe(locked(new Object()), f -> {
+					spectatorFrames.increment();
+					spectatorBytes.add(f.changedRows().length() + f.tiles().length());
+				}));
+			newGame();
+			scheduleInput();
+		}
+
+		private void newGame() {
+			Game g = new Game(W, H,
+					PieceGenerator.bag(ThreadLocalRandom.current().nextLong()));
+			GameSession s = new GameSession(g, loop, this::frameReady);
+			s.setMetrics(metrics);
+			game = g;
+			session = s;
+			s.start(tickMillis);
+		}
+
+		void stop() {
+			stopped = true;
+			session.stop();
+			watchers.forEach(Registration::remove);
+			broadcast.close();
+			metrics.close();
+		}
+
+		/** Take the changed rows into the pending frame, in the game loop. */
+		private void frameReady(Game g) {
+			if (g != game)
+				return;
+			long begin = System.nanoTime();
+			frameHandoff.update(g);
+			push.signal();
+			frameTime.record(System.nanoTime() - begin);
+
+			if (g.isOver()) {
+				games.increment();
+				if (!stopped)
+					loop.execute(this::newGame);
+			}
+		}
+
+		/**
+		 * Take the changed rows, encode their tile delta and publish them,
+		 * in the push stage.
+		 */
+		private void drawFrame() {
+			long begin = System.nanoTime();
+			if (!frameHandoff.take())
+				return;
+			Grid frame = frameHandoff.getFrame();
+			long[] changedRows = frameHandoff.getChangedRows();
+
+			delta.setLength(0);
+			for (int i = 0; i < changedRows.length; i++) {
+				for (long bits = changedRows[i]; bits != 0; bits &= bits - 1) {
+					int y = i * 64 + Long.numberOfTrailingZeros(bits);
+					if (y >= H)
+						break;
+					for (int x = 0; x < W; x++) {
+						int tile = frame.get(x, y);
+						if (tile != shown.get(x, y)) {
+							if (!delta.isEmpty())
+								delta.append(',');
+							delta.append(y * W + x).append(',').append(tile);
+							shown.set(x, y, tile);
+						}
+					}
+				}
+			}
+			broadcast.publish(frame, changedRows, frameHandoff.getScore(),
+					frameHandoff.isOver());
+			frameHandoff.drawn();
+
+			String payload = delta.toString();
+			frames.increment();
+			bytes.add(payload.length());
+			metrics.record(Metric.FRAME_BYTES, payload.length());
+			drainTime.record(System.nanoTime() - begin);
+		}
+
+		/** Send inputs with exponentially distributed intervals. */
+		private void scheduleInput() {
+			double u = ThreadLocalRandom.current().nextDouble();
+			long delayMicros = (long) (-Math.log(1 - u) / inputsPerSecond * 1e6);
+			players.schedule(() -> {
+				if (stopped)
+					return;
+				session.submit(INPUTS[ThreadLocalRandom.current()
+						.nextInt(INPUTS.length)]);
+				inputs.increment();
+				scheduleInput();
+			}, delayMicros, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	/** Run commands under a plain lock, standing in for a session lock. */
+	private static Consumer<Command> locked(Object lock) {
+		return command -> {
+			synchronized (lock) {
+				command.execute();
+			}
+		};
+	}
+}
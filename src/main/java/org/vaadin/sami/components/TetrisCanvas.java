@@ -7,25 +7,144 @@ import com.vaadin.flow.component.Unit;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vaadin.sami.metrics.Metric;
+import org.vaadin.sami.metrics.Metrics;
 
 /**
  * Server-side Java wrapper for the Tetris Canvas Lit component.
  * Provides a type-safe API for HTML5 Canvas drawing operations.
  *
  * This component batches drawing commands and sends them to the client-side
- * Lit component for efficient rendering.
+ * Lit component for efficient rendering. A batch is encoded into a compact
+ * list of opcodes and arguments, sent to the client in a single call and
+ * replayed there by a small interpreter.
+ *
+ * The interpreter and the other client-side routines are installed, and the
+ * palette is sent, every time the component is attached, so they are there
+ * also when the client has created the element again. After that a frame
+ * refers to colors by palette index only: {@link #fillTiles(int, int, int, int)}
+ * paints a run of tiles with four small integers and no strings.
+ *
+ * Alternatively the component can draw a board of palette colored tiles by
+ * itself. The server then only sends the tile values with
+ * {@link #drawBoard(int, int, int, String)} and
+ * {@link #updateBoard(String)}, and no drawing commands at all. With
+ * {@link #showRows(int, int, int, String, String)} whole rows are sent and
+ * the client repaints only the tiles of the rows that changed.
  */
 @Tag("canvas")
 public class TetrisCanvas extends Component implements HasSize {
 
-    private List<DrawCommand> commandBuffer = new ArrayList<>();
-    private boolean batchMode = false;
+    // Opcodes understood by the client-side interpreter
+    private static final int OP_CLEAR = 0;
+    private static final int OP_FILL_STYLE = 1;
+    private static final int OP_FILL_RECT = 2;
+    private static final int OP_SAVE = 3;
+    private static final int OP_RESTORE = 4;
+    private static final int OP_TILE_SIZE = 5;
+    private static final int OP_FILL_TILES = 6;
 
     /**
-     * Drawing command wrapper for JSON serialization
+     * Tiles smaller than this are drawn without the 1 pixel gap around
+     * them, so that adjacent tiles of the same color form one rectangle.
      */
-    record  DrawCommand(String command, Object[] params) {
-    }
+    public static final int MIN_GAP_TILE_SIZE = 12;
+
+    /**
+     * The client-side routines, installed on every attach. $0 is the
+     * smallest tile size drawn with a gap, $1 and $2 the canvas size and $3
+     * the palette.
+     */
+    private static final String INIT_JS = """
+          this.width = $1;
+          this.height = $2;
+          this.ctx = this.getContext('2d');
+          this.ctx.fillStyle = '#000';
+          this.ctx.fillRect(0, 0, this.width, this.height);
+          this.palette = JSON.parse($3);
+          this.tile = 1;
+          this.board = null;
+          this.replay = (payload) => {
+            const [ops, strings] = JSON.parse(payload);
+            const ctx = this.ctx;
+            for (let i = 0; i < ops.length;) {
+              switch (ops[i++]) {
+                case 0: ctx.clearRect(0, 0, this.width, this.height); break;
+                case 1: ctx.fillStyle = strings[ops[i++]]; break;
+                case 2: ctx.fillRect(ops[i++], ops[i++], ops[i++], ops[i++]); break;
+                case 3: ctx.save(); break;
+                case 4: ctx.restore(); break;
+                case 5: this.tile = ops[i++]; break;
+                case 6: {
+                  const x = ops[i++], y = ops[i++], count = ops[i++], value = ops[i++];
+                  const t = this.tile, gap = value > 0 && t >= $0 ? 1 : 0;
+                  ctx.fillStyle = this.palette[value];
+                  ctx.fillRect(x * t + gap, y * t + gap, count * t - 2 * gap, t - 2 * gap);
+                  break;
+                }
+              }
+            }
+          };
+          this.paintTile = (index, value) => {
+            const board = this.board;
+            const x = index % board.columns, y = Math.floor(index / board.columns);
+            const gap = board.tile >= $0 ? 1 : 0;
+            this.ctx.fillStyle = this.palette[value];
+            this.ctx.fillRect(x * board.tile + gap, y * board.tile + gap,
+                board.tile - 2 * gap, board.tile - 2 * gap);
+          };
+          this.drawBoard = (columns, rows, tile, tiles) => {
+            this.board = { columns, rows, tile };
+            this.ctx.fillStyle = this.palette[0];
+            this.ctx.fillRect(0, 0, columns * tile, rows * tile);
+            for (let i = 0; i < tiles.length; i++) {
+              const value = parseInt(tiles[i], 36);
+              if (value > 0) this.paintTile(i, value);
+            }
+          };
+          this.showRows = (columns, rows, tile, indexes, tiles) => {
+            const board = this.board;
+            if (!board || !board.rowTiles || board.columns !== columns
+                || board.rows !== rows || board.tile !== tile) {
+              this.drawBoard(columns, rows, tile, '');
+              this.board.rowTiles = new Array(rows);
+            }
+            const rowTiles = this.board.rowTiles, ys = indexes ? indexes.split(',') : [];
+            for (let n = 0; n < ys.length; n++) {
+              const y = parseInt(ys[n]), previous = rowTiles[y];
+              const row = tiles.substring(n * columns, (n + 1) * columns);
+              rowTiles[y] = row;
+              for (let x = 0; x < columns; x++) {
+                if (previous ? row[x] !== previous[x] : row[x] !== '0') {
+                  this.paintTile(y * columns + x, parseInt(row[x], 36));
+                }
+              }
+            }
+          };
+          this.updateBoard = (delta) => {
+            const d = delta.split(',');
+            for (let i = 0; i < d.length; i += 2) {
+              this.paintTile(parseInt(d[i]), parseInt(d[i + 1]));
+            }
+          };
+        """;
+
+    /** Encoded palettes, shared by all the canvases using the same colors */
+    private static final Map<List<String>, String> PALETTES = new ConcurrentHashMap<>();
+
+    private static final String DEFAULT_PALETTE = "[\"#000\"]";
+
+    private final StringBuilder ops = new StringBuilder();
+    private final List<String> strings = new ArrayList<>();
+    private int opCount;
+    private boolean batchMode = false;
+    private Metrics metrics;
+    private int width;
+    private int height;
+    private String palette = DEFAULT_PALETTE;
 
     /**
      * Create a new Tetris Canvas component
@@ -38,18 +157,84 @@ public class TetrisCanvas extends Component implements HasSize {
         getStyle().setBorder("1px solid var(--lumo-contrast-30pct, #ccc)");
         getStyle().setBackgroundColor("#000");
 
-        getElement().executeJs("""
-              this.ctx = this.getContext('2d');
-              this.ctx.fillStyle = '#000';
-              this.ctx.fillRect(0, 0, this.width, this.height);
-            """);
+        // The client loses everything when the element is created again
+        addAttachListener(e -> getElement().executeJs(INIT_JS,
+            MIN_GAP_TILE_SIZE, this.width, this.height, palette));
+    }
+
+    /**
+     * Record the commands and payload sent to the client.
+     * @param metrics Metrics to record to, or null to not record
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the colors used to draw the board tiles.
+     * @param colors CSS colors, index 0 is the empty tile color
+     */
+    public void setPalette(String... colors) {
+        palette = PALETTES.computeIfAbsent(List.of(colors), list -> {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendQuoted(json, list.get(i));
+            }
+            return json.append(']').toString();
+        });
+        if (isAttached()) {
+            getElement().executeJs("this.palette = JSON.parse($0)", palette);
+        }
+    }
+
+    /**
+     * Draw a whole board of tiles using the palette.
+     * @param columns Number of tile columns
+     * @param rows Number of tile rows
+     * @param tileSize Tile size in pixels
+     * @param tiles Palette index of each tile row by row, one base 36 digit
+     *              per tile
+     */
+    public void drawBoard(int columns, int rows, int tileSize, String tiles) {
+        getElement().callJsFunction("drawBoard", columns, rows, tileSize, tiles);
+        recordFrame(1, tiles.length());
+    }
+
+    /**
+     * Show some rows of a board of tiles using the palette. Only the tiles
+     * that differ from what the rows showed before are painted. The board
+     * is cleared first when its size differs from the board shown before.
+     * @param columns Number of tile columns
+     * @param rows Number of tile rows
+     * @param tileSize Tile size in pixels
+     * @param indexes Comma separated indexes of the rows to show
+     * @param tiles Palette index of each tile of the rows, row by row in
+     *              the same order, one base 36 digit per tile
+     */
+    public void showRows(int columns, int rows, int tileSize, String indexes, String tiles) {
+        getElement().callJsFunction("showRows", columns, rows, tileSize, indexes, tiles);
+        recordFrame(1, indexes.length() + tiles.length());
+    }
+
+    /**
+     * Repaint some tiles of the board drawn with drawBoard().
+     * @param delta Comma separated pairs of tile index (y * columns + x)
+     *              and palette index
+     */
+    public void updateBoard(String delta) {
+        getElement().callJsFunction("updateBoard", delta);
+        recordFrame(1, delta.length());
     }
 
     /**
      * Clear the entire canvas
      */
     public void clear() {
-        addCommand("this.ctx.clearRect(0, 0, this.width, this.height)");
+        writeOp(OP_CLEAR);
+        flushIfImmediate();
     }
 
     /**
@@ -57,7 +242,9 @@ public class TetrisCanvas extends Component implements HasSize {
      * @param color CSS color string (e.g., "#FF0000" or "rgb(255, 0, 0)")
      */
     public void setFillStyle(String color) {
-        addCommand("this.ctx.fillStyle = $0", color);
+        writeOp(OP_FILL_STYLE);
+        writeArg(stringIndex(color));
+        flushIfImmediate();
     }
 
     /**
@@ -68,7 +255,40 @@ public class TetrisCanvas extends Component implements HasSize {
      * @param height Rectangle height
      */
     public void fillRect(double x, double y, double width, double height) {
-        addCommand("this.ctx.fillRect($0, $1, $2, $3)", x, y, width, height);
+        writeOp(OP_FILL_RECT);
+        writeArg(x);
+        writeArg(y);
+        writeArg(width);
+        writeArg(height);
+        flushIfImmediate();
+    }
+
+    /**
+     * Set the size of the tiles painted with fillTiles()
+     * @param tileSize Tile size in pixels
+     */
+    public void setTileSize(int tileSize) {
+        writeOp(OP_TILE_SIZE);
+        writeArg(tileSize);
+        flushIfImmediate();
+    }
+
+    /**
+     * Paint a horizontal run of tiles of one palette color. Tiles of at
+     * least {@link #MIN_GAP_TILE_SIZE} pixels are painted with a gap around
+     * them, except empty tiles that are painted over completely.
+     * @param x Column of the first tile
+     * @param y Row of the tiles
+     * @param count Number of tiles
+     * @param value Palette index of the color
+     */
+    public void fillTiles(int x, int y, int count, int value) {
+        writeOp(OP_FILL_TILES);
+        writeArg(x);
+        writeArg(y);
+        writeArg(count);
+        writeArg(value);
+        flushIfImmediate();
     }
 
     /**
@@ -78,48 +298,126 @@ public class TetrisCanvas extends Component implements HasSize {
      */
     public void beginBatch() {
         batchMode = true;
-        commandBuffer.clear();
-        addCommand("this.ctx.save()");
+        resetBuffer();
+        writeOp(OP_SAVE);
     }
 
     /**
      * End a batch and flush all commands to client.
      * This sends all buffered commands in a single server-to-client call.
+     * Nothing is sent if no drawing commands were added to the batch.
      */
     public void endBatch() {
         if (batchMode) {
-            addCommand("this.ctx.restore()");
-            flushCommands();
+            if (opCount > 1) {
+                writeOp(OP_RESTORE);
+                flushCommands();
+            }
+            resetBuffer();
             batchMode = false;
         }
     }
 
     /**
-     * Add a command to the buffer
+     * Add an opcode to the buffer
      */
-    private void addCommand(String type, Object... params) {
-        DrawCommand cmd = new DrawCommand(type, params);
+    private void writeOp(int op) {
+        writeArg(op);
+        opCount++;
+    }
 
-        if (batchMode) {
-            commandBuffer.add(cmd);
+    /**
+     * Add an integer opcode argument to the buffer
+     */
+    private void writeArg(int value) {
+        if (!ops.isEmpty()) {
+            ops.append(',');
+        }
+        ops.append(value);
+    }
+
+    /**
+     * Add an opcode argument to the buffer
+     */
+    private void writeArg(double value) {
+        if (!ops.isEmpty()) {
+            ops.append(',');
+        }
+        if (value == (long) value) {
+            ops.append((long) value);
         } else {
-            // Immediate execution (single command)
-            getElement().executeJs(type, params);
+            ops.append(value);
         }
     }
 
     /**
-     * Flush all buffered commands to the client
+     * Get the index of a string in the string table of the buffer
+     */
+    private int stringIndex(String value) {
+        int index = strings.indexOf(value);
+        if (index < 0) {
+            index = strings.size();
+            strings.add(value);
+        }
+        return index;
+    }
+
+    private void flushIfImmediate() {
+        if (!batchMode) {
+            flushCommands();
+            resetBuffer();
+        }
+    }
+
+    private void resetBuffer() {
+        ops.setLength(0);
+        strings.clear();
+        opCount = 0;
+    }
+
+    /**
+     * Flush all buffered commands to the client as a single JSON payload
+     * of the form [[opcodes and arguments], [strings]].
      */
     private void flushCommands() {
-        if (commandBuffer.isEmpty()) {
+        if (opCount == 0) {
             return;
         }
 
-        commandBuffer.forEach(action -> {
-            getElement().executeJs(action.command, action.params);
-        });
-        commandBuffer.clear();
+        StringBuilder payload = new StringBuilder(ops.length() + 32);
+        payload.append("[[").append(ops).append("],[");
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            appendQuoted(payload, strings.get(i));
+        }
+        payload.append("]]");
+
+        getElement().callJsFunction("replay", payload.toString());
+        recordFrame(opCount, payload.length());
+    }
+
+    private void recordFrame(int commands, int length) {
+        if (metrics != null) {
+            metrics.record(Metric.FRAME_COMMANDS, commands);
+            metrics.record(Metric.FRAME_BYTES, length);
+        }
+    }
+
+    private static void appendQuoted(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
     }
 
     /**
@@ -128,9 +426,13 @@ public class TetrisCanvas extends Component implements HasSize {
      * @param height New height in pixels
      */
     public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
         setWidth(width, Unit.PIXELS);
         setHeight(height, Unit.PIXELS);
 
-        getElement().executeJs("this.width = $0; this.height = $1", width, height);
+        if (isAttached()) {
+            getElement().executeJs("this.width = $0; this.height = $1", width, height);
+        }
     }
 }
@@ -0,0 +1,159 @@
+package org.vaadin.sami.javaday;
+
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.shared.Registration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.vaadin.sami.tetris.Game;
+import org.vaadin.sami.tetris.GameLoop;
+import org.vaadin.sami.tetris.Grid;
+import org.vaadin.sami.tetris.Match;
+import org.vaadin.sami.tetris.PieceGenerator;
+
+/**
+ * Pairs up players for battles.
+ *
+ * Players wait in the lobby until there are enough of them for a match.
+ * All the games of a match get the same sequence of pieces. The boards of
+ * the match are published as {@link Broadcast}s, so the players see each
+ * other's boards the same way as spectators do, and the matches can be
+ * watched in {@link SpectatorView} too.
+ */
+public class BattleLobby {
+
+    private static final BattleLobby SHARED = new BattleLobby(2, 10, 20, 500);
+
+    /**
+     * A player waiting for or playing a match.
+     */
+    public interface Player {
+
+        /**
+         * The match of the player has started. Called in the thread that
+         * called {@link #join(Player)} for the last player of the match,
+         * after the match has been started. A player that throws
+         * {@link UIDetachedException} has left and forfeits the match.
+         * @param seat Place of the player in the match
+         */
+        void started(Seat seat);
+
+        /**
+         * The match of the player has ended. Called in the game loop.
+         * @param won True if the player won
+         */
+        void finished(boolean won);
+    }
+
+    /**
+     * Place of a player in a match.
+     * @param match The match
+     * @param player Index of the player in the match
+     * @param boards Boards of all the players of the match
+     */
+    public record Seat(Match match, int player, List<Broadcast> boards) {
+    }
+
+    private final int players;
+    private final int width;
+    private final int height;
+    private final long periodMillis;
+    private final List<Player> waiting = new ArrayList<>();
+
+    /**
+     * Create a lobby
+     * @param players Number of players in a match
+     * @param width Width of the playfields
+     * @param height Height of the playfields
+     * @param periodMillis Time between the steps of the games
+     */
+    public BattleLobby(int players, int width, int height, long periodMillis) {
+        this.players = players;
+        this.width = width;
+        this.height = height;
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Get the lobby shared by all players of head-to-head battles.
+     */
+    public static BattleLobby getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Wait for a match. The match starts as soon as there are enough
+     * players.
+     * @param player The player
+     * @return Registration to leave the lobby before the match starts
+     */
+    public Registration join(Player player) {
+        List<Player> matched;
+        synchronized (waiting) {
+            waiting.add(player);
+            if (waiting.size() < players) {
+                return () -> {
+                    synchronized (waiting) {
+                        waiting.remove(player);
+                    }
+                };
+            }
+            matched = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        startMatch(matched);
+        return () -> {
+        };
+    }
+
+    private void startMatch(List<Player> matched) {
+        long seed = ThreadLocalRandom.current().nextLong();
+        Game[] games = new Game[matched.size()];
+        List<Broadcast> boards = new ArrayList<>();
+        for (int i = 0; i < games.length; i++) {
+            games[i] = new Game(width, height, PieceGenerator.bag(seed));
+            boards.add(Broadcast.open());
+        }
+
+        Grid[] frames = new Grid[games.length];
+        long[][] changedRows = new long[games.length][];
+        Match match = new Match(games, seed, GameLoop.getShared(), new Match.Listener() {
+
+            @Override
+            public void frame(int player, Game game) {
+                if (frames[player] == null) {
+                    frames[player] = new Grid(game.getWidth(), game.getHeight());
+                    changedRows[player] = new long[(game.getHeight() + 63) >>> 6];
+                }
+                game.updateState(frames[player], changedRows[player]);
+                boards.get(player).publish(frames[player], changedRows[player],
+                    game.getScore(), game.isOver());
+                Arrays.fill(changedRows[player], 0);
+            }
+
+            @Override
+            public void finished(int winner) {
+                boards.forEach(Broadcast::close);
+                for (int i = 0; i < matched.size(); i++) {
+                    try {
+                        matched.get(i).finished(i == winner);
+                    } catch (UIDetachedException e) {
+                        // The player has left already
+                    }
+                }
+            }
+        });
+
+        match.start(periodMillis);
+        for (int i = 0; i < matched.size(); i++) {
+            try {
+                matched.get(i).started(new Seat(match, i, List.copyOf(boards)));
+            } catch (UIDetachedException e) {
+                match.forfeit(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.vaadin.sami.javaday;
+
+import com.vaadin.flow.component.Key;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.button.ButtonVariant;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.icon.VaadinIcon;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.PageTitle;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.shared.Registration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import org.vaadin.sami.components.TetrisCanvas;
+import org.vaadin.sami.tetris.Input;
+
+/**
+ * Head-to-head battle against another player.
+ *
+ * Players are paired in the {@link BattleLobby}. Clearing two or more lines
+ * at once sends garbage rows to the opponent, and the last player standing
+ * wins. The own board is shown next to the opponent's board.
+ */
+@Route("battle")
+@PageTitle("Vaadin Tetris - Battle")
+public class BattleView extends VerticalLayout implements BattleLobby.Player {
+
+    private static final int TILE_SIZE = TetrisView.TILE_SIZE;
+    private static final int OPPONENT_TILE_SIZE = TILE_SIZE / 2;
+
+    private final HorizontalLayout boards = new HorizontalLayout();
+    private final Span status = new Span("Press play to find an opponent");
+    private final Button playBtn;
+    private final List<Registration> subscriptions = new CopyOnWriteArrayList<>();
+    private UI ui;
+    private Registration lobby;
+    private volatile BattleLobby.Seat seat;
+
+    public BattleView() {
+        setSpacing(true);
+        setPadding(true);
+        setAlignItems(Alignment.CENTER);
+
+        playBtn = new Button(VaadinIcon.PLAY.create(), e -> join());
+        playBtn.addThemeVariants(ButtonVariant.LUMO_PRIMARY);
+
+        Button leftBtn = new Button(VaadinIcon.ARROW_LEFT.create(), e -> submit(Input.MOVE_LEFT));
+        leftBtn.addClickShortcut(Key.ARROW_LEFT);
+        Button rightBtn = new Button(VaadinIcon.ARROW_RIGHT.create(), e -> submit(Input.MOVE_RIGHT));
+        rightBtn.addClickShortcut(Key.ARROW_RIGHT);
+        Button rotateCWBtn = new Button("[key down]", VaadinIcon.ROTATE_RIGHT.create(),
+            e -> submit(Input.ROTATE_CW));
+        rotateCWBtn.addClickShortcut(Key.ARROW_DOWN);
+        Button rotateCCWBtn = new Button("[key up]", VaadinIcon.ROTATE_LEFT.create(),
+            e -> submit(Input.ROTATE_CCW));
+        rotateCCWBtn.addClickShortcut(Key.ARROW_UP);
+        Button dropBtn = new Button("[space]", VaadinIcon.ARROW_DOWN.create(), e -> submit(Input.DROP));
+        dropBtn.addClickShortcut(Key.SPACE);
+
+        add(new HorizontalLayout(playBtn, leftBtn, rightBtn, rotateCCWBtn, rotateCWBtn, dropBtn));
+        add(boards, status);
+
+        addAttachListener(e -> ui = e.getUI());
+        addDetachListener(e -> leave());
+    }
+
+    private void join() {
+        leave();
+        boards.removeAll();
+        playBtn.setEnabled(false);
+        status.setText("Waiting for an opponent");
+        lobby = BattleLobby.getShared().join(this);
+    }
+
+    private void leave() {
+        if (lobby != null) {
+            lobby.remove();
+            lobby = null;
+        }
+        BattleLobby.Seat s = seat;
+        if (s != null) {
+            s.match().forfeit(s.player());
+            seat = null;
+        }
+        subscriptions.forEach(Registration::remove);
+        subscriptions.clear();
+    }
+
+    private void submit(Input input) {
+        BattleLobby.Seat s = seat;
+        if (s != null) {
+            s.match().submit(s.player(), input);
+        }
+    }
+
+    @Override
+    public void started(BattleLobby.Seat seat) {
+        int count = seat.boards().size();
+        TetrisCanvas[] canvases = new TetrisCanvas[count];
+        ui.access(() -> {
+            lobby = null;
+            status.setText("Fight!");
+            // Own board first, then the opponents
+            for (int n = 0; n < count; n++) {
+                int i = (seat.player() + n) % count;
+                int tileSize = i == seat.player() ? TILE_SIZE : OPPONENT_TILE_SIZE;
+                canvases[i] = new TetrisCanvas(tileSize * 10, tileSize * 20);
+                canvases[i].setPalette(TetrisView.palette());
+                boards.add(canvases[i]);
+            }
+        });
+        this.seat = seat;
+        // Subscribe right away to not miss the first frames, they are
+        // drawn after the canvases have been created
+        for (int i = 0; i < count; i++) {
+            int player = i;
+            watchBoard(seat.boards().get(i), () -> canvases[player],
+                i == seat.player() ? TILE_SIZE : OPPONENT_TILE_SIZE);
+        }
+    }
+
+    private void watchBoard(Broadcast board, Supplier<TetrisCanvas> target, int tileSize) {
+        int[] size = { 10, 20 };
+        subscriptions.add(board.subscribe(ui, frame -> {
+            TetrisCanvas canvas = target.get();
+            if (frame.columns() != size[0] || frame.rows() != size[1]) {
+                size[0] = frame.columns();
+                size[1] = frame.rows();
+                canvas.setSize(size[0] * tileSize, size[1] * tileSize);
+            }
+            canvas.showRows(frame.columns(), frame.rows(), tileSize, frame.changedRows(), frame.tiles());
+        }));
+    }
+
+    @Override
+    public void finished(boolean won) {
+        seat = null;
+        ui.access(() -> {
+            subscriptions.forEach(Registration::remove);
+            subscriptions.clear();
+            status.setText(won ? "You win!" : "You lose");
+            playBtn.setEnabled(true);
+        });
+    }
+}
@@ -0,0 +1,257 @@
+package org.vaadin.sami.javaday;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.shared.Registration;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.vaadin.sami.tetris.Grid;
+
+/**
+ * Broadcasts the frames of one game to any number of spectators.
+ *
+ * Only the rows that changed are published. Each changed row is encoded
+ * once, when it is published, and the same encoded row is handed to every
+ * spectator, so the cost of a frame depends on the changes and not on the
+ * size of the board. Nothing is encoded while nobody is watching.
+ *
+ * Every spectator has a set of rows it has not been shown yet, drained by
+ * a {@link PushStage}. A new frame adds its rows to the set, so a spectator
+ * whose connection cannot keep up gets the latest content of all the rows
+ * changed since its previous frame, and a new spectator gets every row.
+ */
+public class Broadcast {
+
+    private static final Map<String, Broadcast> ACTIVE = new ConcurrentHashMap<>();
+    private static final AtomicLong IDS = new AtomicLong();
+
+    /**
+     * The rows of the board changed since the previous frame of a
+     * spectator.
+     * @param columns Number of tile columns
+     * @param rows Number of tile rows
+     * @param changedRows Comma separated indexes of the changed rows
+     * @param tiles Palette index of each tile of the changed rows, row by
+     *              row in the same order, one base 36 digit per tile
+     * @param score The score
+     * @param over True if the game is over
+     */
+    public record Frame(int columns, int rows, String changedRows, String tiles,
+        int score, boolean over) {
+    }
+
+    private final String id;
+    private final List<Spectator> spectators = new CopyOnWriteArrayList<>();
+
+    // The board as published so far, guarded by this
+    private int columns;
+    private int rows;
+    private String[] encodedRows = new String[0];
+    private long[] unencoded = new long[0];
+    private int score;
+    private boolean over;
+
+    private Broadcast(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Start a new broadcast and make it available to spectators.
+     */
+    public static Broadcast open() {
+        Broadcast broadcast = new Broadcast(String.valueOf(IDS.incrementAndGet()));
+        ACTIVE.put(broadcast.id, broadcast);
+        return broadcast;
+    }
+
+    /**
+     * Find an active broadcast
+     * @param id Id of the broadcast
+     * @return The broadcast, or null if there is no such broadcast
+     */
+    public static Broadcast get(String id) {
+        return ACTIVE.get(id);
+    }
+
+    /**
+     * Get all the active broadcasts.
+     */
+    public static Collection<Broadcast> getActive() {
+        return ACTIVE.values();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the number of spectators currently watching.
+     */
+    public int getSpectatorCount() {
+        return spectators.size();
+    }
+
+    /**
+     * Stop the broadcast. The spectators keep the last frame.
+     */
+    public void close() {
+        ACTIVE.remove(id);
+        spectators.clear();
+    }
+
+    /**
+     * Publish the changed rows of a frame to the spectators. Only the
+     * changed rows are encoded, and only while somebody is watching; rows
+     * changed before that are encoded with the next frame published to a
+     * spectator. Never blocks on the spectators.
+     * @param state Current state of the game
+     * @param changedRows Bit set of the rows changed since the previous
+     *                    call, bit y % 64 of element y / 64 for row y. All
+     *                    the rows are published when the size changes.
+     * @param score The score
+     * @param over True if the game is over
+     */
+    public void publish(Grid state, long[] changedRows, int score, boolean over) {
+        synchronized (this) {
+            int w = state.getWidth(), h = state.getHeight();
+            if (w != columns || h != rows) {
+                columns = w;
+                rows = h;
+                encodedRows = new String[h];
+                unencoded = new long[(h + 63) >>> 6];
+                Arrays.fill(unencoded, -1L);
+                spectators.forEach(Spectator::showAll);
+            } else {
+                for (int i = 0; i < unencoded.length; i++) {
+                    unencoded[i] |= changedRows[i];
+                }
+            }
+            this.score = score;
+            this.over = over;
+            if (spectators.isEmpty()) {
+                return;
+            }
+
+            char[] tiles = new char[w];
+            for (int i = 0; i < unencoded.length; i++) {
+                long bits = unencoded[i];
+                if (i == unencoded.length - 1 && h % 64 != 0) {
+                    bits &= (1L << h) - 1;
+                }
+                unencoded[i] = 0;
+                for (long b = bits; b != 0; b &= b - 1) {
+                    int y = i * 64 + Long.numberOfTrailingZeros(b);
+                    for (int x = 0; x < w; x++) {
+                        tiles[x] = Character.forDigit(state.get(x, y), 36);
+                    }
+                    encodedRows[y] = new String(tiles);
+                }
+                for (Spectator spectator : spectators) {
+                    spectator.unseen[i] |= bits;
+                }
+            }
+        }
+        for (Spectator spectator : spectators) {
+            spectator.push.signal();
+        }
+    }
+
+    /**
+     * Watch the broadcast. The whole board, if any, is delivered right
+     * away.
+     * @param ui The UI of the spectator
+     * @param viewer Called in the UI with each frame
+     * @return Registration to stop watching
+     */
+    public Registration subscribe(UI ui, Consumer<Frame> viewer) {
+        return subscribe(ui::access, viewer);
+    }
+
+    /**
+     * Watch the broadcast without a UI, e.g. in a load test. The whole
+     * board, if any, is delivered right away.
+     * @param access Runs a command the way UI.access() does
+     * @param viewer Called through the access with each frame
+     * @return Registration to stop watching
+     */
+    public Registration subscribe(Consumer<Command> access, Consumer<Frame> viewer) {
+        Spectator spectator = new Spectator(access, viewer);
+        synchronized (this) {
+            spectator.showAll();
+            spectators.add(spectator);
+        }
+        spectator.push.signal();
+        return () -> spectators.remove(spectator);
+    }
+
+    /**
+     * Take the rows a spectator has not been shown yet.
+     * @return The frame, or null if nothing has been published
+     */
+    private synchronized Frame take(Spectator spectator) {
+        if (rows == 0) {
+            return null;
+        }
+        StringBuilder indexes = new StringBuilder();
+        StringBuilder tiles = new StringBuilder();
+        long[] unseen = spectator.unseen;
+        for (int i = 0; i < unseen.length; i++) {
+            // A row changed since it was encoded is shown with the next frame
+            for (long bits = unseen[i] & ~unencoded[i]; bits != 0; bits &= bits - 1) {
+                int y = i * 64 + Long.numberOfTrailingZeros(bits);
+                if (encodedRows[y] != null) {
+                    if (!indexes.isEmpty()) {
+                        indexes.append(',');
+                    }
+                    indexes.append(y);
+                    tiles.append(encodedRows[y]);
+                }
+            }
+            unseen[i] = 0;
+        }
+        return new Frame(columns, rows, indexes.toString(), tiles.toString(), score, over);
+    }
+
+    /**
+     * Rows not yet shown to one spectator.
+     */
+    private class Spectator {
+
+        private final Consumer<Frame> viewer;
+        private final PushStage push;
+        // Guarded by the broadcast
+        private long[] unseen;
+
+        Spectator(Consumer<Command> access, Consumer<Frame> viewer) {
+            this.viewer = viewer;
+            push = new PushStage(access, this::show, () -> spectators.remove(this));
+        }
+
+        /**
+         * Show every row with the next frame. Called with the broadcast
+         * locked.
+         */
+        void showAll() {
+            unseen = new long[unencoded.length];
+            Arrays.fill(unseen, -1L);
+            if (rows % 64 != 0 && unseen.length > 0) {
+                unseen[unseen.length - 1] = (1L << rows) - 1;
+            }
+        }
+
+        private void show() {
+            Frame frame = take(this);
+            if (frame != null) {
+                viewer.accept(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.vaadin.sami.javaday;
+
+import java.util.Arrays;
+
+import org.vaadin.sami.tetris.Game;
+import org.vaadin.sami.tetris.Grid;
+import org.vaadin.sami.tetris.Tetromino;
+
+/**
+ * Hands the frames of one game from the game loop to the thread that draws
+ * them.
+ *
+ * The game loop takes the rows changed in the game into a pending frame
+ * with {@link #update(Game)}, which never waits for the drawing. The
+ * drawing thread copies the rows changed since its previous frame into a
+ * frame of its own with {@link #take()}, draws them, and calls
+ * {@link #drawn()}. Frames that were not taken in time are skipped, but
+ * their changed rows are not lost. Both sides reuse their buffers, so a
+ * frame allocates nothing unless the size of the board changes.
+ *
+ * Used by TetrisView and by the load test, so that the load test measures
+ * the same hand-off.
+ */
+public class FrameHandoff {
+
+    private final Object lock = new Object();
+
+    // Written in the game loop, guarded by lock
+    private Grid pendingFrame;
+    private long[] pendingRows;
+    private int pieceX, pieceY;
+    private int pendingScore, pendingLevel;
+    private boolean pendingOver;
+    private boolean framePending;
+    private long pendingSince;
+
+    // Used in the drawing thread only
+    private Grid frame;
+    private long[] changedRows;
+    private int focusX, focusY;
+    private int score, level;
+    private boolean over;
+    private long requested;
+
+    /**
+     * Take the rows changed in the game into the pending frame. Called in
+     * the game loop, never waits for the drawing.
+     */
+    public void update(Game game) {
+        synchronized (lock) {
+            if (pendingFrame == null
+                    || pendingFrame.getWidth() != game.getWidth()
+                    || pendingFrame.getHeight() != game.getHeight()) {
+                pendingFrame = new Grid(game.getWidth(), game.getHeight());
+                pendingRows = new long[(game.getHeight() + 63) >>> 6];
+            }
+            game.updateState(pendingFrame, pendingRows);
+            Tetromino piece = game.getActiveTetromino();
+            pieceX = game.getPosX() + piece.getWidth() / 2;
+            pieceY = game.getPosY() + piece.getHeight() / 2;
+            pendingScore = game.getScore();
+            pendingLevel = game.getLevel();
+            pendingOver = game.isOver();
+            if (!framePending) {
+                framePending = true;
+                pendingSince = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Take the latest pending frame, if any, in the drawing thread. The
+     * rows changed since the previous frame are copied into
+     * {@link #getFrame()} and added to {@link #getChangedRows()}. All the
+     * rows are changed in the first frame and when the size changes.
+     * @return True if there was a frame to take
+     */
+    public boolean take() {
+        synchronized (lock) {
+            if (!framePending) {
+                return false;
+            }
+            framePending = false;
+            requested = pendingSince;
+
+            int w = pendingFrame.getWidth(), h = pendingFrame.getHeight();
+            if (frame == null || frame.getWidth() != w
+                    || frame.getHeight() != h) {
+                frame = new Grid(w, h);
+                changedRows = new long[pendingRows.length];
+                Arrays.fill(pendingRows, -1L);
+            }
+            for (int i = 0; i < pendingRows.length; i++) {
+                long bits = pendingRows[i];
+                changedRows[i] |= bits;
+                pendingRows[i] = 0;
+                for (; bits != 0; bits &= bits - 1) {
+                    int y = i * 64 + Long.numberOfTrailingZeros(bits);
+                    if (y >= h) {
+                        break;
+                    }
+                    for (int x = 0; x < w; x++) {
+                        frame.set(x, y, pendingFrame.get(x, y));
+                    }
+                }
+            }
+            focusX = pieceX;
+            focusY = pieceY;
+            score = pendingScore;
+            level = pendingLevel;
+            over = pendingOver;
+            return true;
+        }
+    }
+
+    /**
+     * Tell that the changed rows have been drawn. Called in the drawing
+     * thread.
+     */
+    public void drawn() {
+        Arrays.fill(changedRows, 0);
+    }
+
+    /**
+     * Drop the frames, e.g. when the game is paused. The next frame
+     * taken has all the rows changed.
+     */
+    public void clear() {
+        synchronized (lock) {
+            pendingFrame = null;
+            pendingRows = null;
+            framePending = false;
+        }
+        frame = null;
+        changedRows = null;
+    }
+
+    /**
+     * Get the frame taken last.
+     */
+    public Grid getFrame() {
+        return frame;
+    }
+
+    /**
+     * Get the rows changed since they were drawn, bit y % 64 of element
+     * y / 64 for row y.
+     */
+    public long[] getChangedRows() {
+        return changedRows;
+    }
+
+    /** Get the column of the middle of the piece in the frame. */
+    public int getFocusX() {
+        return focusX;
+    }
+
+    /** Get the row of the middle of the piece in the frame. */
+    public int getFocusY() {
+        return focusY;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isOver() {
+        return over;
+    }
+
+    /**
+     * Get the {@link System#nanoTime()} when the frame taken last started
+     * waiting to be drawn.
+     */
+    public long getRequestedNanos() {
+        return requested;
+    }
+}
@@ -0,0 +1,206 @@
+package org.vaadin.sami.javaday;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * High score leaderboard.
+ *
+ * The best scores are kept in memory in a concurrent skip list, so scores
+ * can be submitted from many threads without locking. Scores that do not
+ * make it to the leaderboard are rejected with a single comparison. Reads
+ * return an immutable list that is only rebuilt after the leaderboard has
+ * changed, so they are cheap enough to poll.
+ *
+ * Accepted scores are appended to a log file by a background thread and
+ * read back on startup. The file is compacted to the current leaderboard
+ * when it grows too large.
+ */
+public class Leaderboard {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Leaderboard.class);
+
+    private static final int DEFAULT_SIZE = 10;
+
+    private static final Leaderboard SHARED = new Leaderboard(DEFAULT_SIZE,
+        Path.of(System.getProperty("tetris.leaderboard", "leaderboard.txt")));
+
+    /**
+     * Leaderboard entry.
+     * @param score The score
+     * @param time When the score was reached, in epoch milliseconds
+     */
+    public record Entry(int score, long time) {
+    }
+
+    private record Ranked(Entry entry, long sequence) {
+    }
+
+    private static final Comparator<Ranked> ORDER = Comparator
+        .comparingInt((Ranked r) -> r.entry().score()).reversed()
+        .thenComparingLong(Ranked::sequence);
+
+    private final int size;
+    private final Path file;
+    private final ConcurrentSkipListSet<Ranked> top = new ConcurrentSkipListSet<>(ORDER);
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final BlockingQueue<Entry> journal = new LinkedBlockingQueue<>();
+    private volatile int minScore = Integer.MIN_VALUE;
+    private volatile List<Entry> entries = List.of();
+    private volatile boolean changed;
+    private int fileLines;
+
+    /**
+     * Create a leaderboard persisted to a file
+     * @param size Number of scores to keep
+     * @param file File to persist the scores to, or null to only keep them
+     *             in memory
+     */
+    public Leaderboard(int size, Path file) {
+        this.size = size;
+        this.file = file;
+        if (file != null) {
+            load();
+            Thread writer = new Thread(this::writeJournal, "leaderboard-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Get the leaderboard shared by all players. The scores are persisted to
+     * the file given by the "tetris.leaderboard" system property.
+     */
+    public static Leaderboard getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Submit a score. Never blocks.
+     * @param score The score to submit
+     * @return true if the score made it to the leaderboard
+     */
+    public boolean submit(int score) {
+        Entry entry = new Entry(score, System.currentTimeMillis());
+        if (!add(entry)) {
+            return false;
+        }
+        if (file != null) {
+            journal.add(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Get the scores on the leaderboard, best first.
+     * @return Immutable list of the entries
+     */
+    public List<Entry> getTop() {
+        if (changed) {
+            changed = false;
+            entries = top.stream().map(Ranked::entry).toList();
+        }
+        return entries;
+    }
+
+    private boolean add(Entry entry) {
+        if (entry.score() <= minScore) {
+            return false;
+        }
+        Ranked ranked = new Ranked(entry, sequence.incrementAndGet());
+        top.add(ranked);
+        // Keep the size, the lowest entry may be the one just added
+        if (count.incrementAndGet() > size) {
+            count.decrementAndGet();
+            top.pollLast();
+        }
+        if (count.get() >= size) {
+            Ranked last = top.isEmpty() ? null : top.last();
+            minScore = last == null ? Integer.MIN_VALUE : last.entry().score();
+        }
+        changed = true;
+        return top.contains(ranked);
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            // Compaction may have written some entries twice
+            Set<Entry> loaded = new HashSet<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2) {
+                    loaded.add(new Entry(Integer.parseInt(fields[0]),
+                        Long.parseLong(fields[1])));
+                }
+                fileLines++;
+            }
+            loaded.forEach(this::add);
+        } catch (IOException | NumberFormatException e) {
+            LOG.error("Cannot read leaderboard " + file, e);
+        }
+    }
+
+    /**
+     * Append the accepted scores to the file, compacting it when it has
+     * grown to many times the leaderboard size.
+     */
+    private void writeJournal() {
+        List<Entry> batch = new ArrayList<>();
+        int lines = fileLines;
+        while (true) {
+            try {
+                batch.add(journal.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            journal.drainTo(batch);
+            try {
+                try (BufferedWriter out = Files.newBufferedWriter(file,
+                        StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)) {
+                    for (Entry entry : batch) {
+                        out.write(entry.score() + "\t" + entry.time() + "\n");
+                    }
+                }
+                lines += batch.size();
+
+                if (lines > size * 10) {
+                    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                    List<String> compacted = getTop().stream()
+                        .map(e -> e.score() + "\t" + e.time())
+                        .toList();
+                    Files.write(tmp, compacted, StandardCharsets.UTF_8);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                    lines = compacted.size();
+                }
+            } catch (IOException e) {
+                LOG.error("Cannot write leaderboard " + file, e);
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.vaadin.sami.javaday;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.vaadin.sami.metrics.Metrics;
+
+/**
+ * Serves the game loop and rendering metrics in Prometheus text format.
+ *
+ * Only requests from the local host are answered. The per-session metrics
+ * are included with the "sessions=true" parameter.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        StringBuilder report = new StringBuilder();
+        Metrics.global().appendReport(report);
+        if ("true".equals(request.getParameter("sessions"))) {
+            Metrics.getSessions().values().forEach(m -> m.appendReport(report));
+        }
+
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(report.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package org.vaadin.sami.javaday;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.server.Command;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Pushes changes to one UI without blocking the thread that produces them.
+ *
+ * The producer keeps the latest state in a mailbox of its own, e.g. a
+ * frame that is overwritten by the next one, and calls {@link #signal()}.
+ * The UI.access() call that drains the mailbox is made in a virtual thread
+ * of its own, so the producer never runs the access or the push itself,
+ * even when the session lock happens to be free. A push that blocks on a
+ * slow connection only parks its own virtual thread, and never holds up
+ * the pushes to other UIs. At most one drain is pending at a time. Signals
+ * arriving before it runs are coalesced into it, so a slow client gets
+ * fewer, more recent updates instead of a growing backlog.
+ */
+public class PushStage {
+
+    private static final ExecutorService PUSHERS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Consumer<Command> access;
+    private final Command drain;
+    private final Runnable detached;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Create a push stage
+     * @param ui The UI to push to
+     * @param drain Takes the latest state from the mailbox and updates the
+     *              UI, called with the session locked
+     */
+    public PushStage(UI ui, Command drain) {
+        this(ui, drain, () -> { });
+    }
+
+    /**
+     * Create a push stage
+     * @param ui The UI to push to
+     * @param drain Takes the latest state from the mailbox and updates the
+     *              UI, called with the session locked
+     * @param detached Called in a push thread when the UI has been detached
+     */
+    public PushStage(UI ui, Command drain, Runnable detached) {
+        this(ui::access, drain, detached);
+    }
+
+    /**
+     * Create a push stage that runs the drain some other way than with
+     * UI.access(), e.g. under a plain lock in a load test
+     * @param access Runs a command the way UI.access() does, may throw
+     *               {@link UIDetachedException}
+     * @param drain Takes the latest state from the mailbox and updates the
+     *              UI, called through the access
+     * @param detached Called in a push thread when the UI has been detached
+     */
+    public PushStage(Consumer<Command> access, Command drain, Runnable detached) {
+        this.access = access;
+        this.drain = drain;
+        this.detached = detached;
+    }
+
+    /**
+     * Tell that the mailbox has changed. Never blocks.
+     */
+    public void signal() {
+        if (!scheduled.compareAndSet(false, true)) {
+            // The pending drain will take the change
+            return;
+        }
+        PUSHERS.execute(() -> {
+            try {
+                access.accept(() -> {
+                    scheduled.set(false);
+                    drain.execute();
+                });
+            } catch (UIDetachedException e) {
+                scheduled.set(false);
+                detached.run();
+            }
+        });
+    }
+}
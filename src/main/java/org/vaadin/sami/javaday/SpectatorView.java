@@ -0,0 +1,106 @@
+package org.vaadin.sami.javaday;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.BeforeEvent;
+import com.vaadin.flow.router.HasUrlParameter;
+import com.vaadin.flow.router.OptionalParameter;
+import com.vaadin.flow.router.PageTitle;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.router.RouterLink;
+import com.vaadin.flow.shared.Registration;
+
+import org.vaadin.sami.components.TetrisCanvas;
+
+/**
+ * Watch a game played in {@link TetrisView}.
+ *
+ * The frames come from the {@link Broadcast} of the game. Only the rows
+ * that changed are sent with each frame, and the canvas repaints only the
+ * changed tiles of them.
+ * The whole board is shown, with smaller tiles for a large board. Without a
+ * broadcast id, the view lists the games that can be watched.
+ */
+@Route("watch")
+@PageTitle("Vaadin Tetris - Spectator")
+public class SpectatorView extends VerticalLayout implements HasUrlParameter<String> {
+
+    private String broadcastId;
+    private TetrisCanvas canvas;
+    private Span scoreLabel;
+    private Registration subscription;
+    private int columns = 10;
+    private int rows = 20;
+    private int tileSize = TetrisView.TILE_SIZE;
+
+    public SpectatorView() {
+        setSpacing(true);
+        setPadding(true);
+        setAlignItems(Alignment.CENTER);
+
+        addAttachListener(e -> subscribe(e.getUI()));
+        addDetachListener(e -> unsubscribe());
+    }
+
+    @Override
+    public void setParameter(BeforeEvent event, @OptionalParameter String id) {
+        unsubscribe();
+        removeAll();
+        broadcastId = id;
+
+        if (id == null) {
+            listBroadcasts();
+            return;
+        }
+
+        canvas = new TetrisCanvas(tileSize * columns, tileSize * rows);
+        canvas.setPalette(TetrisView.palette());
+        scoreLabel = new Span("Waiting for the game to start");
+        add(canvas, scoreLabel, new RouterLink("All games", SpectatorView.class));
+        if (isAttached()) {
+            getUI().ifPresent(this::subscribe);
+        }
+    }
+
+    private void listBroadcasts() {
+        add(new Span(Broadcast.getActive().isEmpty()
+            ? "No games to watch" : "Games to watch:"));
+        for (Broadcast broadcast : Broadcast.getActive()) {
+            add(new RouterLink("Game " + broadcast.getId() + " ("
+                + broadcast.getSpectatorCount() + " watching)",
+                SpectatorView.class, broadcast.getId()));
+        }
+    }
+
+    private void subscribe(UI ui) {
+        if (broadcastId == null || subscription != null) {
+            return;
+        }
+        Broadcast broadcast = Broadcast.get(broadcastId);
+        if (broadcast == null) {
+            scoreLabel.setText("The game has ended");
+            return;
+        }
+        subscription = broadcast.subscribe(ui, this::showFrame);
+    }
+
+    private void unsubscribe() {
+        if (subscription != null) {
+            subscription.remove();
+            subscription = null;
+        }
+    }
+
+    private void showFrame(Broadcast.Frame frame) {
+        if (frame.columns() != columns || frame.rows() != rows) {
+            // Resizing clears the canvas, the board is then drawn in full
+            columns = frame.columns();
+            rows = frame.rows();
+            tileSize = TetrisView.fitTileSize(columns, rows);
+            canvas.setSize(columns * tileSize, rows * tileSize);
+        }
+        canvas.showRows(frame.columns(), frame.rows(), tileSize, frame.changedRows(), frame.tiles());
+        scoreLabel.setText("Score: " + frame.score() + (frame.over() ? " - Game over" : ""));
+    }
+}
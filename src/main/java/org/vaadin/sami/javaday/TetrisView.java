@@ -10,12 +10,32 @@ import com.vaadin.flow.component.notification.NotificationVariant;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.component.Key;
+import com.vaadin.flow.router.BeforeEnterEvent;
+import com.vaadin.flow.router.BeforeEnterObserver;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
+import com.vaadin.flow.router.RouterLink;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.vaadin.sami.components.TetrisCanvas;
+import org.vaadin.sami.metrics.Allocations;
+import org.vaadin.sami.metrics.Metric;
+import org.vaadin.sami.metrics.Metrics;
+import org.vaadin.sami.tetris.Bot;
 import org.vaadin.sami.tetris.Game;
+import org.vaadin.sami.tetris.GameLoop;
+import org.vaadin.sami.tetris.GameSession;
 import org.vaadin.sami.tetris.Grid;
+import org.vaadin.sami.tetris.Input;
+import org.vaadin.sami.tetris.InputLog;
 import org.vaadin.sami.tetris.Tetromino;
 
 /**
@@ -26,26 +46,151 @@ import org.vaadin.sami.tetris.Tetromino;
  * - Canvas rendering happens on the client (Lit component)
  * - Server sends drawing commands to client
  * - WebSocket Push enables real-time updates (configured in AppShell)
+ *
+ * With the "render=client" query parameter the server sends only the
+ * changed tiles and the client draws them itself.
+ *
+ * The board size is given with the "w" and "h" query parameters, up to
+ * {@link #MAX_BOARD_SIZE} tiles. A large board is shown through a viewport
+ * that follows the falling piece. Only the rows that changed in the game
+ * are compared with what the client shows, and only within the viewport,
+ * so the cost of a frame depends on the changes on the screen and not on
+ * the size of the board.
+ *
+ * The game loop only updates a pending frame and signals a
+ * {@link PushStage}, which draws the latest frame in the UI thread. A slow
+ * client skips frames but never delays the game loop.
+ *
+ * Every game is broadcast, and can be watched by any number of spectators
+ * in {@link SpectatorView}. The rows changed in a frame are published to
+ * the broadcast after the frame has been drawn, in the UI thread.
+ *
+ * A game is paused when the tab is hidden, or when there has been no input
+ * for {@link #IDLE_TIMEOUT_MS} without autoplay. The paused game is kept
+ * only as a snapshot, without a session or frame buffers, and resumes on
+ * the next input.
+ *
+ * If the "tetris.inputlog" system property is set to a file, the inputs of
+ * all games are recorded there for replay.
  */
 @Route("")
 @PageTitle("Vaadin Tetris")
-public class TetrisView extends VerticalLayout {
+public class TetrisView extends VerticalLayout implements BeforeEnterObserver {
+
+    /**
+     * How the game state is rendered to the canvas.
+     */
+    public enum RenderMode {
+        /** Server sends the canvas drawing commands */
+        SERVER,
+        /** Server sends the tile values, client draws them */
+        CLIENT
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(TetrisView.class);
+
+    private static final InputLog INPUT_LOG = openInputLog();
 
-    private static final int PAUSE_TIME_MS = 500;
     protected static final int TILE_SIZE = 30;
-    private static final int PLAYFIELD_W = 10;
-    private static final int PLAYFIELD_H = 20;
+    private static final int MIN_TILE_SIZE = 8;
+    private static final int DEFAULT_BOARD_WIDTH = 10;
+    private static final int DEFAULT_BOARD_HEIGHT = 20;
+    private static final int MIN_BOARD_SIZE = 4;
+    static final int MAX_BOARD_SIZE = 500;
+    private static final int MAX_VIEWPORT_WIDTH = 960;
+    private static final int MAX_VIEWPORT_HEIGHT = 600;
+    // The viewport moves when the piece gets this close to its edge
+    private static final int VIEWPORT_MARGIN = 4;
+    static final long IDLE_TIMEOUT_MS = 60_000;
     private static final String PLAYFIELD_COLOR = "#000";
+    private static final String GARBAGE_COLOR = "#777";
+    private static final String GHOST_COLOR = "#333";
+    private static final String[] PALETTE = palette();
+    private static final AtomicLong VIEW_IDS = new AtomicLong();
 
     private TetrisCanvas canvas;
     protected boolean running;
-    protected Game game;
+    protected volatile Game game;
     private Span scoreLabel;
+    private Span highScores;
     private UI ui;
+    private GameSession session;
+    private InputLog.Recorder recorder;
+    private final FrameHandoff frames = new FrameHandoff();
+    private final PushStage push;
+    private Grid frame;
+    private long[] changedRows;
+    private Grid shown;
+    private boolean fullRepaint = true;
+    private int boardWidth = DEFAULT_BOARD_WIDTH;
+    private int boardHeight = DEFAULT_BOARD_HEIGHT;
+    private int tileSize = TILE_SIZE;
+    private int viewX, viewY;
+    private RenderMode renderMode = RenderMode.SERVER;
+    private volatile Metrics metrics;
+    private volatile Broadcast broadcast;
+    private RouterLink spectateLink;
+    private volatile boolean autoplay;
+    private volatile long lastInputNanos;
+    private byte[] hibernated;
+    private int hibernatedScore;
+    private final String viewId = String.valueOf(VIEW_IDS.incrementAndGet());
 
     public TetrisView() {
         this.ui = UI.getCurrent();
+        this.push = new PushStage(ui, this::drawGameState);
         initializeUI();
+
+        // Client lost the canvas content, repaint everything on next frame
+        addAttachListener(e -> {
+            fullRepaint = true;
+            updateHighScores();
+            if (metrics == null) {
+                metrics = Metrics.createSession();
+                canvas.setMetrics(metrics);
+            }
+            if (broadcast == null) {
+                broadcast = Broadcast.open();
+                spectateLink.setRoute(SpectatorView.class, broadcast.getId());
+            }
+        });
+
+        // Pause the game when the tab is hidden. The document listener is
+        // kept by view id, so that it can be removed through the page once
+        // the element is gone.
+        addAttachListener(e -> getElement().executeJs("""
+            const listeners = window.tetrisVisibilityListeners ??= new Map();
+            if (!listeners.has($0)) {
+              const listener = () => {
+                if (document.hidden) this.dispatchEvent(new CustomEvent('tab-hidden'));
+              };
+              listeners.set($0, listener);
+              document.addEventListener('visibilitychange', listener);
+            }""", viewId));
+        addDetachListener(e -> e.getUI().getPage().executeJs("""
+            const listeners = window.tetrisVisibilityListeners;
+            const listener = listeners && listeners.get($0);
+            if (listener) {
+              document.removeEventListener('visibilitychange', listener);
+              listeners.delete($0);
+            }""", viewId));
+        getElement().addEventListener("tab-hidden", e -> hibernate());
+
+        // Stop ticking when the view is no longer shown
+        addDetachListener(e -> {
+            running = false;
+            stopGameLoop();
+            endHibernated();
+            if (metrics != null) {
+                metrics.close();
+                metrics = null;
+                canvas.setMetrics(null);
+            }
+            if (broadcast != null) {
+                broadcast.close();
+                broadcast = null;
+            }
+        });
     }
 
     private void initializeUI() {
@@ -58,62 +203,42 @@ public class TetrisView extends VerticalLayout {
 
         // Button for moving left
         Button leftBtn = new Button(VaadinIcon.ARROW_LEFT.create());
-        leftBtn.addClickListener(e -> {
-            if (game != null) {
-                game.moveLeft();
-                drawGameState();
-            }
-        });
+        leftBtn.addClickListener(e -> submit(Input.MOVE_LEFT));
         leftBtn.addClickShortcut(Key.ARROW_LEFT);
 
         // Button for moving right
         Button rightBtn = new Button(VaadinIcon.ARROW_RIGHT.create());
-        rightBtn.addClickListener(e -> {
-            if (game != null) {
-                game.moveRight();
-                drawGameState();
-            }
-        });
+        rightBtn.addClickListener(e -> submit(Input.MOVE_RIGHT));
         rightBtn.addClickShortcut(Key.ARROW_RIGHT);
 
         // Button for rotating clockwise
         Button rotateCWBtn = new Button("[key down]", VaadinIcon.ROTATE_RIGHT.create());
-        rotateCWBtn.addClickListener(e -> {
-            if (game != null) {
-                game.rotateCW();
-                drawGameState();
-            }
-        });
+        rotateCWBtn.addClickListener(e -> submit(Input.ROTATE_CW));
         rotateCWBtn.addClickShortcut(Key.ARROW_DOWN);
 
         // Button for rotating counter clockwise
         Button rotateCCWBtn = new Button("[key up]", VaadinIcon.ROTATE_LEFT.create());
-        rotateCCWBtn.addClickListener(e -> {
-            if (game != null) {
-                game.rotateCCW();
-                drawGameState();
-            }
-        });
+        rotateCCWBtn.addClickListener(e -> submit(Input.ROTATE_CCW));
         rotateCCWBtn.addClickShortcut(Key.ARROW_UP);
 
         // Button for dropping the piece
         Button dropBtn = new Button("[space]", VaadinIcon.ARROW_DOWN.create());
-        dropBtn.addClickListener(e -> {
-            if (game != null) {
-                game.drop();
-                drawGameState();
-            }
-        });
+        dropBtn.addClickListener(e -> submit(Input.DROP));
         dropBtn.addClickShortcut(Key.SPACE);
 
+        // Button for moving the piece down faster
+        Button softDropBtn = new Button("[s]", VaadinIcon.ANGLE_DOWN.create());
+        softDropBtn.addClickListener(e -> submit(Input.SOFT_DROP));
+        softDropBtn.addClickShortcut(Key.KEY_S);
+
         // Button for restarting the game
         Button restartBtn = new Button(VaadinIcon.PLAY.create());
         restartBtn.addThemeVariants(ButtonVariant.LUMO_PRIMARY);
         restartBtn.addClickListener(e -> {
             running = !running;
             if (running) {
-                game = new Game(10, 20);
-                startGameThread();
+                game = new Game(boardWidth, boardHeight);
+                startGameLoop();
                 restartBtn.setIcon(VaadinIcon.STOP.create());
                 dropBtn.focus();
             } else {
@@ -122,117 +247,461 @@ public class TetrisView extends VerticalLayout {
             }
         });
 
+        // Button for letting the computer play
+        Button autoplayBtn = new Button("Autoplay", VaadinIcon.AUTOMATION.create());
+        autoplayBtn.addClickListener(e -> {
+            autoplay = !autoplay;
+            autoplayBtn.setText(autoplay ? "Stop autoplay" : "Autoplay");
+            resume();
+            setBot();
+        });
+
         // Control buttons layout
         HorizontalLayout controls = new HorizontalLayout(
-            restartBtn, leftBtn, rightBtn, rotateCCWBtn, rotateCWBtn, dropBtn
+            restartBtn, leftBtn, rightBtn, rotateCCWBtn, rotateCWBtn, softDropBtn, dropBtn,
+            autoplayBtn
         );
         controls.setSpacing(true);
         add(controls);
 
         // Canvas for the game
         canvas = new TetrisCanvas(
-            TILE_SIZE * PLAYFIELD_W,
-            TILE_SIZE * PLAYFIELD_H
+            TILE_SIZE * DEFAULT_BOARD_WIDTH,
+            TILE_SIZE * DEFAULT_BOARD_HEIGHT
         );
         add(canvas);
 
+        canvas.setPalette(PALETTE);
+
         // Label for score
         scoreLabel = new Span("");
         add(scoreLabel);
+
+        // Label for high scores
+        highScores = new Span("");
+        add(highScores);
+
+        // Link for spectators
+        spectateLink = new RouterLink();
+        spectateLink.setText("Watch this game");
+        add(spectateLink);
     }
 
     /**
-     * Start the game thread that updates the game periodically.
+     * Get the canvas palette: the playfield color followed by the colors of
+     * the tetrominoes, the garbage color and the ghost piece color.
      */
-    protected synchronized void startGameThread() {
-        Thread t = new Thread() {
-            public void run() {
-                // Draw initial state immediately
-                drawGameState();
-                updateScore();
+    static String[] palette() {
+        String[] palette = new String[Game.GHOST + 1];
+        palette[0] = PLAYFIELD_COLOR;
+        for (int i = 1; i < Game.GARBAGE; i++) {
+            palette[i] = Tetromino.get(i).getColor();
+        }
+        palette[Game.GARBAGE] = GARBAGE_COLOR;
+        palette[Game.GHOST] = GHOST_COLOR;
+        return palette;
+    }
 
-                // Continue until stopped or game is over
-                while (running && !game.isOver()) {
-                    // Pause for a while
-                    try {
-                        sleep(PAUSE_TIME_MS);
-                    } catch (InterruptedException ignored) {
-                    }
+    /**
+     * Get the size of the tiles to show a whole board of the given size
+     * within the maximum viewport size.
+     */
+    static int fitTileSize(int columns, int rows) {
+        int size = Math.min(MAX_VIEWPORT_WIDTH / columns, MAX_VIEWPORT_HEIGHT / rows);
+        return Math.max(1, Math.min(TILE_SIZE, size));
+    }
 
-                    // Step the game forward
-                    game.step();
+    @Override
+    public void beforeEnter(BeforeEnterEvent event) {
+        renderMode = event.getLocation().getQueryParameters()
+            .getSingleParameter("render")
+            .filter("client"::equalsIgnoreCase)
+            .map(p -> RenderMode.CLIENT)
+            .orElse(RenderMode.SERVER);
+        boardWidth = boardSize(event, "w", DEFAULT_BOARD_WIDTH);
+        boardHeight = boardSize(event, "h", DEFAULT_BOARD_HEIGHT);
+        tileSize = Math.max(MIN_TILE_SIZE,
+            Math.min(TILE_SIZE, MAX_VIEWPORT_HEIGHT / boardHeight));
+        canvas.setSize(viewSize(boardWidth, MAX_VIEWPORT_WIDTH) * tileSize,
+            viewSize(boardHeight, MAX_VIEWPORT_HEIGHT) * tileSize);
+        fullRepaint = true;
+    }
 
-                    // Then draw new state and update score
-                    drawGameState();
-                    updateScore();
-                }
+    private static int boardSize(BeforeEnterEvent event, String name, int defaultSize) {
+        return event.getLocation().getQueryParameters()
+            .getSingleParameter(name)
+            .filter(p -> p.matches("\\d{1,4}"))
+            .map(p -> Math.max(MIN_BOARD_SIZE, Math.min(MAX_BOARD_SIZE, Integer.parseInt(p))))
+            .orElse(defaultSize);
+    }
 
-                // Notify user that game is over
-                gameOver();
-            }
-        };
-        t.start();
+    /**
+     * Get the number of tiles shown along one axis.
+     * @param boardSize Size of the board in tiles
+     * @param maxPixels Maximum size of the viewport in pixels
+     */
+    private int viewSize(int boardSize, int maxPixels) {
+        return Math.min(boardSize, maxPixels / tileSize);
+    }
+
+    /**
+     * Start updating the game in the shared game loop, faster as the level
+     * goes up.
+     */
+    protected synchronized void startGameLoop() {
+        hibernated = null;
+        recorder = INPUT_LOG != null ? INPUT_LOG.record(game) : null;
+        startSession();
+    }
+
+    private void startSession() {
+        stopGameLoop();
+
+        fullRepaint = true;
+        lastInputNanos = System.nanoTime();
+        session = new GameSession(game, GameLoop.getShared(), this::frameReady);
+        session.setMetrics(metrics);
+        setBot();
+        session.setRecorder(recorder);
+        session.start();
+    }
+
+    /**
+     * Pause the running game and keep only its snapshot. The session, the
+     * game and the frame buffers are released. The recording of the game
+     * is left open. Called in the UI thread.
+     */
+    private synchronized void hibernate() {
+        byte[] snapshot = session != null ? session.pause() : null;
+        if (snapshot == null) {
+            return;
+        }
+        session = null;
+        hibernated = snapshot;
+        hibernatedScore = game.getScore();
+        game = null;
+        frames.clear();
+        frame = null;
+        changedRows = null;
+        shown = null;
+        scoreLabel.setText("Paused, press a key to continue");
+    }
+
+    /**
+     * Continue a hibernated game. The restored game is the same as the
+     * paused one, so it is recorded with the same recorder and the log
+     * replays the whole game.
+     */
+    private synchronized void resume() {
+        if (hibernated == null) {
+            return;
+        }
+        game = Game.restore(hibernated);
+        hibernated = null;
+        startSession();
+    }
+
+    /**
+     * End a hibernated game, if any. There is no session to end its
+     * recording, so it is ended here with the score taken when the game
+     * was paused.
+     */
+    private synchronized void endHibernated() {
+        if (hibernated == null) {
+            return;
+        }
+        hibernated = null;
+        if (recorder != null) {
+            recorder.end(hibernatedScore);
+        }
+    }
+
+    /**
+     * Let the computer play the running game if autoplay is on.
+     */
+    private synchronized void setBot() {
+        if (session != null) {
+            session.setBot(autoplay ? new Bot() : null);
+        }
+    }
+
+    /**
+     * Open the input log configured with the "tetris.inputlog" system
+     * property, if any.
+     */
+    private static InputLog openInputLog() {
+        String file = System.getProperty("tetris.inputlog");
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new InputLog(Path.of(file));
+        } catch (IOException e) {
+            LOG.error("Cannot open input log " + file + ", games are not recorded", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stop the periodic game updates, if running.
+     */
+    protected synchronized void stopGameLoop() {
+        if (session != null) {
+            session.stop();
+            session = null;
+        }
+    }
+
+    /**
+     * Queue an input for the running game.
+     */
+    private synchronized void submit(Input input) {
+        lastInputNanos = System.nanoTime();
+        resume();
+        if (session != null) {
+            session.submit(input);
+        }
+    }
+
+    /**
+     * Called in the game loop when the game has changed, at most 30 times a
+     * second. The changed rows are taken from the game into the pending
+     * frame of the hand-off here, and drawn later in the UI thread by the
+     * push stage. This never waits for the UI or the client.
+     */
+    private void frameReady(Game game) {
+        // A stopped game may still notify its last frame
+        if (game != this.game) {
+            return;
+        }
+        frames.update(game);
+        push.signal();
     }
 
     /**
      * Update the score display.
      */
-    protected synchronized void updateScore() {
-        ui.access(() -> {
-            scoreLabel.setText("Score: " + game.getScore());
-        });
+    protected void updateScore(int score, int level) {
+        scoreLabel.setText("Score: " + score + "  Level: " + level);
     }
 
     /**
      * Quit the game.
      */
-    protected synchronized void gameOver() {
+    protected void gameOver() {
         running = false;
+        stopGameLoop();
+        int score = hibernated != null ? hibernatedScore : game.getScore();
+        endHibernated();
 
-        ui.access(() -> {
-            Notification notification = new Notification(
-                "Game Over - Your score: " + game.getScore(),
-                3000,
-                Notification.Position.MIDDLE
-            );
-            notification.addThemeVariants(NotificationVariant.LUMO_PRIMARY);
-            notification.open();
-        });
+        if (score > 0) {
+            Leaderboard.getShared().submit(score);
+        }
+
+        updateHighScores();
+
+        Notification notification = new Notification(
+            "Game Over - Your score: " + score,
+            3000,
+            Notification.Position.MIDDLE
+        );
+        notification.addThemeVariants(NotificationVariant.LUMO_PRIMARY);
+        notification.open();
+    }
+
+    /**
+     * Update the high score display from the leaderboard.
+     */
+    private void updateHighScores() {
+        List<Leaderboard.Entry> top = Leaderboard.getShared().getTop();
+        highScores.setText(top.isEmpty() ? "" : "High scores: " + top.stream()
+            .map(entry -> String.valueOf(entry.score()))
+            .collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * Draw the current game state. Called in the UI thread by the push
+     * stage.
+     *
+     * The latest frame taken from the game is drawn, frames that were not
+     * drawn yet are skipped. Only the rows that changed in the game are
+     * copied, and within the viewport the tiles that differ from what was
+     * drawn before are drawn. The whole viewport is repainted when there is
+     * nothing drawn before, e.g. for a new game or after the view was
+     * reattached, and when the viewport moves.
+     */
+    protected void drawGameState() {
+        long allocated = Allocations.currentThread();
+
+        // The changed rows are copied into a reusable buffer
+        if (!frames.take()) {
+            return;
+        }
+        if (frames.getFrame() != frame) {
+            frame = frames.getFrame();
+            changedRows = frames.getChangedRows();
+            fullRepaint = true;
+        }
+        int focusX = frames.getFocusX(), focusY = frames.getFocusY();
+        int score = frames.getScore(), level = frames.getLevel();
+        boolean over = frames.isOver();
+        Metrics m = metrics;
+        if (m != null) {
+            m.record(Metric.ACCESS_DELAY_NS,
+                System.nanoTime() - frames.getRequestedNanos());
+        }
+
+        int columns = viewSize(frame.getWidth(), MAX_VIEWPORT_WIDTH);
+        int rows = viewSize(frame.getHeight(), MAX_VIEWPORT_HEIGHT);
+        if (shown == null || shown.getWidth() != columns
+                || shown.getHeight() != rows) {
+            shown = new Grid(columns, rows);
+            fullRepaint = true;
+        }
+        int x = scroll(viewX, focusX, columns, frame.getWidth());
+        int y = scroll(viewY, focusY, rows, frame.getHeight());
+        if (x != viewX || y != viewY) {
+            viewX = x;
+            viewY = y;
+            fullRepaint = true;
+        }
+        boolean repaint = fullRepaint;
+        fullRepaint = false;
+        if (repaint) {
+            shown.fill(0, 0, columns, rows, 0);
+        }
+
+        if (renderMode == RenderMode.CLIENT) {
+            sendTiles(repaint);
+        } else {
+            drawTiles(repaint);
+        }
+        Broadcast b = broadcast;
+        if (b != null) {
+            b.publish(frame, changedRows, score, over);
+        }
+        frames.drawn();
+        updateScore(score, level);
+
+        if (m != null && allocated >= 0) {
+            m.record(Metric.FRAME_ALLOCATED_BYTES,
+                Allocations.currentThread() - allocated);
+        }
+
+        // Notify user that game is over, once
+        if (over) {
+            if (running) {
+                gameOver();
+            }
+        } else if (!autoplay && System.nanoTime() - lastInputNanos
+                > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MS)) {
+            hibernate();
+        }
+    }
+
+    /**
+     * Get the new position of the viewport along one axis. The viewport is
+     * centered on the piece when the piece gets close to its edge.
+     * @param view Current position of the viewport
+     * @param focus Position of the piece
+     * @param size Size of the viewport
+     * @param boardSize Size of the board
+     */
+    private static int scroll(int view, int focus, int size, int boardSize) {
+        int margin = Math.min(VIEWPORT_MARGIN, size / 4);
+        if (focus < view + margin || focus >= view + size - margin) {
+            view = focus - size / 2;
+        }
+        return Math.max(0, Math.min(boardSize - size, view));
     }
 
     /**
-     * Draw the current game state using batched commands for efficiency.
+     * Check if a row of the viewport needs to be looked at.
      */
-    protected synchronized void drawGameState() {
-        ui.access(() -> {
-            // Use batch mode for efficient rendering
-            canvas.beginBatch();
+    private boolean isChanged(int y, boolean repaint) {
+        return repaint || (changedRows[y >>> 6] & (1L << y)) != 0;
+    }
 
+    /**
+     * Draw the changed tiles using batched canvas commands. The tiles are
+     * referred to by palette index, the colors are on the client already.
+     * A run of adjacent changed tiles of the same color in a row is drawn
+     * with one command when the tiles are drawn without gaps, and empty
+     * tiles always.
+     */
+    private void drawTiles(boolean repaint) {
+        int columns = shown.getWidth(), rows = shown.getHeight();
+        int gap = tileSize >= TetrisCanvas.MIN_GAP_TILE_SIZE ? 1 : 0;
+
+        // Use batch mode for efficient rendering
+        canvas.beginBatch();
+
+        if (repaint) {
             // Clear and draw background
             canvas.clear();
             canvas.setFillStyle(PLAYFIELD_COLOR);
-            canvas.fillRect(0, 0, game.getWidth() * TILE_SIZE,
-                          game.getHeight() * TILE_SIZE);
-
-            // Draw tetrominoes
-            Grid state = game.getCurrentState();
-            for (int x = 0; x < state.getWidth(); x++) {
-                for (int y = 0; y < state.getHeight(); y++) {
-                    int tile = state.get(x, y);
-                    if (tile > 0) {
-                        String color = Tetromino.get(tile).getColor();
-                        canvas.setFillStyle(color);
-                        canvas.fillRect(
-                            x * TILE_SIZE + 1,
-                            y * TILE_SIZE + 1,
-                            TILE_SIZE - 2,
-                            TILE_SIZE - 2
-                        );
+            canvas.fillRect(0, 0, columns * tileSize, rows * tileSize);
+            canvas.setTileSize(tileSize);
+        }
+
+        for (int y = 0; y < rows; y++) {
+            if (!isChanged(viewY + y, repaint)) {
+                continue;
+            }
+            for (int x = 0; x < columns;) {
+                int tile = frame.get(viewX + x, viewY + y);
+                if (tile == shown.get(x, y)) {
+                    x++;
+                    continue;
+                }
+                int run = 1;
+                if (tile == 0 || gap == 0) {
+                    while (x + run < columns
+                            && frame.get(viewX + x + run, viewY + y) == tile
+                            && shown.get(x + run, y) != tile) {
+                        run++;
                     }
                 }
+                canvas.fillTiles(x, y, run, tile);
+                for (int i = 0; i < run; i++) {
+                    shown.set(x + i, y, tile);
+                }
+                x += run;
             }
+        }
 
-            canvas.endBatch();
-        });
+        canvas.endBatch();
+    }
+
+    /**
+     * Send the tile values of the viewport to be drawn on the client: all
+     * of them on repaint, otherwise only the changed tiles.
+     */
+    private void sendTiles(boolean repaint) {
+        int columns = shown.getWidth(), rows = shown.getHeight();
+        StringBuilder tiles = new StringBuilder();
+        for (int y = 0; y < rows; y++) {
+            if (!isChanged(viewY + y, repaint)) {
+                continue;
+            }
+            for (int x = 0; x < columns; x++) {
+                int tile = frame.get(viewX + x, viewY + y);
+                if (repaint) {
+                    tiles.append(Character.forDigit(tile, 36));
+                } else if (tile != shown.get(x, y)) {
+                    if (!tiles.isEmpty()) {
+                        tiles.append(',');
+                    }
+                    tiles.append(y * columns + x).append(',').append(tile);
+                }
+                shown.set(x, y, tile);
+            }
+        }
+
+        if (repaint) {
+            canvas.drawBoard(columns, rows, tileSize, tiles.toString());
+        } else if (!tiles.isEmpty()) {
+            canvas.updateBoard(tiles.toString());
+        }
     }
 }
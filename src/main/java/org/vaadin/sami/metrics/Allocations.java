@@ -0,0 +1,32 @@
+package org.vaadin.sami.metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures memory allocated by the current thread, where the JVM supports
+ * it.
+ */
+public final class Allocations {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private Allocations() {
+    }
+
+    /**
+     * Get the total number of bytes allocated by the current thread
+     * @return The allocated bytes, or -1 if not supported
+     */
+    public static long currentThread() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,30 @@
+package org.vaadin.sami.metrics;
+
+/**
+ * Measured values, each collected into a {@link Histogram}.
+ */
+public enum Metric {
+
+    /** How late game ticks run compared to their deadline, nanoseconds */
+    TICK_LAG_NS,
+
+    /** Time spent in Game.step(), nanoseconds */
+    STEP_TIME_NS,
+
+    /** Draw commands sent to the client per frame */
+    FRAME_COMMANDS,
+
+    /** Payload sent to the client per frame, characters */
+    FRAME_BYTES,
+
+    /** Time from UI.access() to the frame being drawn, nanoseconds */
+    ACCESS_DELAY_NS,
+
+    /** Memory allocated while drawing a frame, bytes */
+    FRAME_ALLOCATED_BYTES;
+
+    /** Name of the metric in reports */
+    public String getName() {
+        return "tetris_" + name().toLowerCase();
+    }
+}
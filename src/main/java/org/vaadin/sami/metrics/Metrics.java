@@ -0,0 +1,168 @@
+package org.vaadin.sami.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Low overhead metrics of the game loop and rendering.
+ *
+ * There is one global instance and one per player session. Values recorded
+ * for a session are also recorded globally. The global metrics are
+ * published over JMX as "org.vaadin.sami:type=Metrics" and, together with
+ * the session metrics, as text by the metrics servlet.
+ */
+public class Metrics implements MetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+    private static final Metrics GLOBAL = new Metrics("global", null);
+    private static final Map<String, Metrics> SESSIONS = new ConcurrentHashMap<>();
+    private static final AtomicLong SESSION_IDS = new AtomicLong();
+
+    static {
+        registerMBean();
+    }
+
+    private final String name;
+    private final Metrics parent;
+    private final EnumMap<Metric, Histogram> histograms = new EnumMap<>(Metric.class);
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics(String name, Metrics parent) {
+        this.name = name;
+        this.parent = parent;
+        for (Metric metric : Metric.values()) {
+            histograms.put(metric, new Histogram());
+        }
+    }
+
+    /** Get the metrics of the whole server */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Create metrics for a new session. Remove them with {@link #close()}
+     * when the session ends.
+     */
+    public static Metrics createSession() {
+        Metrics metrics = new Metrics("session-" + SESSION_IDS.incrementAndGet(), GLOBAL);
+        SESSIONS.put(metrics.name, metrics);
+        return metrics;
+    }
+
+    /** Get the metrics of all the current sessions by name */
+    public static Map<String, Metrics> getSessions() {
+        return SESSIONS;
+    }
+
+    /** Stop listing these session metrics */
+    public void close() {
+        SESSIONS.remove(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a value, also in the global metrics
+     * @param metric The metric
+     * @param value The value
+     */
+    public void record(Metric metric, long value) {
+        histograms.get(metric).record(value);
+        if (parent != null) {
+            parent.record(metric, value);
+        }
+    }
+
+    public Histogram getHistogram(Metric metric) {
+        return histograms.get(metric);
+    }
+
+    /**
+     * Register a value that is read when the metrics are reported
+     * @param name Name of the gauge
+     * @param value Supplier of the current value
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((gauge, value) -> values.put(gauge, value.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getHistograms() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        histograms.forEach((metric, h) -> {
+            values.put(metric.getName() + "_count", h.getCount());
+            values.put(metric.getName() + "_mean", h.getMean());
+            values.put(metric.getName() + "_max", h.getMax());
+            for (double p : PERCENTILES) {
+                values.put(metric.getName() + "_p" + Math.round(p * 100), h.getPercentile(p));
+            }
+        });
+        return values;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        appendReport(report);
+        return report.toString();
+    }
+
+    /**
+     * Append these metrics in Prometheus text format
+     * @param report The report to append to
+     */
+    public void appendReport(StringBuilder report) {
+        String labels = "{scope=\"" + name + "\"";
+        getGauges().forEach((gauge, value) ->
+            report.append(gauge).append(labels).append("} ").append(value).append('\n'));
+        histograms.forEach((metric, h) -> {
+            String n = metric.getName();
+            report.append(n).append("_count").append(labels).append("} ").append(h.getCount()).append('\n');
+            report.append(n).append("_sum").append(labels).append("} ").append(h.getSum()).append('\n');
+            report.append(n).append("_max").append(labels).append("} ").append(h.getMax()).append('\n');
+            for (double p : PERCENTILES) {
+                report.append(n).append(labels).append(",quantile=\"").append(p).append("\"} ")
+                    .append(h.getPercentile(p)).append('\n');
+            }
+        });
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.vaadin.sami:type=Metrics");
+            // Replace the instance of a previous deployment
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(GLOBAL, objectName);
+        } catch (JMException e) {
+            LOG.warn("Cannot register metrics MBean", e);
+        }
+    }
+}
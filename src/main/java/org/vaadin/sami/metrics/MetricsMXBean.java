@@ -0,0 +1,18 @@
+package org.vaadin.sami.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the global {@link Metrics}.
+ */
+public interface MetricsMXBean {
+
+    /** Current values of the gauges by name */
+    Map<String, Long> getGauges();
+
+    /** Count, mean, max and percentiles of each histogram by name */
+    Map<String, Long> getHistograms();
+
+    /** All metrics in Prometheus text format */
+    String getReport();
+}
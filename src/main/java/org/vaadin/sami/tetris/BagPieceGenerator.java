@@ -0,0 +1,33 @@
+package org.vaadin.sami.tetris;
+
+/**
+ * Piece generator dealing the pieces from shuffled bags of all seven pieces
+ * ("Random Generator" in the Tetris Guideline). Every piece is seen once in
+ * every seven pieces.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class BagPieceGenerator extends SeededPieceGenerator {
+
+	private final int[] bag = { 1, 2, 3, 4, 5, 6, 7 };
+	private int remaining;
+
+	public BagPieceGenerator(long seed) {
+		super(seed);
+	}
+
+	@Override
+	protected int nextType() {
+		if (remaining == 0) {
+			for (int i = bag.length - 1; i > 0; i--) {
+				int j = nextInt(i + 1);
+				int tmp = bag[i];
+				bag[i] = bag[j];
+				bag[j] = tmp;
+			}
+			remaining = bag.length;
+		}
+		return bag[--remaining];
+	}
+}
@@ -0,0 +1,435 @@
+package org.vaadin.sami.tetris;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computer player.
+ *
+ * For each new piece the bot tries every rotation of the active piece in
+ * every column, and for each of these every placement of the next piece in
+ * the preview. The resulting boards are scored with a heuristic of
+ * aggregate height, lines cleared, holes and bumpiness, and the best first
+ * placement is played.
+ *
+ * The search works on copies of the bit-packed rows of the playfield, so
+ * dropping a piece, clearing lines and scoring a board are a few bit
+ * operations per row. All the buffers are allocated once, so a sequential
+ * search allocates nothing. In parallel mode the candidates for the active
+ * piece are split between fork/join tasks, each using its own buffers. The
+ * tasks are allocated for every search, about one for every
+ * {@link #SPLIT_THRESHOLD} candidates, so only the sequential search is
+ * free of allocations.
+ *
+ * The bot only plays on playfields of at most 64 columns, where a row is a
+ * single long. On wider playfields it does nothing.
+ *
+ * A bot is not thread safe, use one bot per game.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class Bot {
+
+	// Weights of the heuristic
+	private static final double HEIGHT = -0.510066;
+	private static final double LINES = 0.760666;
+	private static final double HOLES = -0.35663;
+	private static final double BUMPINESS = -0.184483;
+
+	/** Penalty for a move after which the next piece does not fit. */
+	private static final double GAME_OVER = -1000;
+
+	private static final int ROTATIONS = 4;
+
+	/** Columns left of the playfield where a piece may still fit. */
+	private static final int MARGIN = 3;
+
+	/** Ranges of fewer candidates than this are not split further. */
+	private static final int SPLIT_THRESHOLD = 8;
+
+	private final ForkJoinPool pool;
+
+	// Candidates for the active piece
+	private int width, height;
+	private long fullRow;
+	private long[] board;
+	private int activeType;
+	private int[] candidateRotation;
+	private int[] candidateX;
+	private double[] candidateScore;
+	private Scratch[] scratches;
+	private int candidates;
+
+	// Current plan
+	private Input[] plan;
+	private int planLength;
+	private int planPosition;
+	private long plannedPiece = -1;
+
+	/** Create a bot searching in the calling thread. */
+	public Bot() {
+		this(null);
+	}
+
+	/**
+	 * Create a bot.
+	 *
+	 * @param pool pool for searching the candidates in parallel, or null to
+	 *            search in the calling thread.
+	 */
+	public Bot(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Get the next input for the game. A new move is searched every time a
+	 * new piece appears.
+	 *
+	 * @param game the game to play.
+	 * @return the next input, or null when the piece has been dropped and
+	 *         the bot is waiting for the next one, or the playfield is too
+	 *         wide for the bot.
+	 */
+	public Input nextInput(Game game) {
+		if (game.isOver() || game.getPlayfield().getWords() > 1)
+			return null;
+		if (plannedPiece != game.getPieceCount()) {
+			plannedPiece = game.getPieceCount();
+			plan(game);
+		}
+		return planPosition < planLength ? plan[planPosition++] : null;
+	}
+
+	/**
+	 * Search the best move for the active piece and plan the inputs to get
+	 * there: rotations, moves and a drop.
+	 */
+	private void plan(Game game) {
+		planLength = 0;
+		planPosition = 0;
+		int best = search(game);
+		if (best < 0)
+			return;
+
+		int rotations = (candidateRotation[best]
+				- game.getActiveTetromino().getRotation() + ROTATIONS)
+				% ROTATIONS;
+		if (rotations == 3) {
+			plan[planLength++] = Input.ROTATE_CCW;
+		} else {
+			for (int i = 0; i < rotations; i++)
+				plan[planLength++] = Input.ROTATE_CW;
+		}
+		int dx = candidateX[best] - game.getPosX();
+		for (int i = 0; i < Math.abs(dx); i++)
+			plan[planLength++] = dx < 0 ? Input.MOVE_LEFT : Input.MOVE_RIGHT;
+		plan[planLength++] = Input.DROP;
+	}
+
+	/**
+	 * Search the best placement of the active piece.
+	 *
+	 * @param game the game.
+	 * @return index of the best candidate, or -1 if the piece cannot be
+	 *         placed anywhere.
+	 */
+	int search(Game game) {
+		Playfield playfield = game.getPlayfield();
+		allocate(playfield.getWidth(), playfield.getHeight());
+		fullRow = playfield.getFullRow();
+		playfield.copyRows(board);
+
+		Tetromino active = game.getActiveTetromino();
+		activeType = active.getType();
+		int px = game.getPosX(), py = game.getPosY();
+		candidates = 0;
+		for (int r = 0; r < ROTATIONS; r++) {
+			Tetromino piece = Tetromino.getRotated(activeType, r);
+			if (isDuplicateRotation(piece)
+					|| !canRotate(active, piece, px, py))
+				continue;
+			for (int x = -MARGIN; x < width; x++) {
+				if (!canSlide(piece.getRowMasks(), px, x, py))
+					continue;
+				candidateRotation[candidates] = r;
+				candidateX[candidates] = x;
+				candidates++;
+			}
+		}
+
+		Tetromino next = game.getPreview(0);
+		if (pool == null || candidates < SPLIT_THRESHOLD * 2)
+			evaluate(scratches[0], 0, candidates, py, next);
+		else
+			pool.invoke(new Search(this, 0, candidates, py, next));
+
+		int best = -1;
+		for (int i = 0; i < candidates; i++)
+			if (best < 0 || candidateScore[i] > candidateScore[best])
+				best = i;
+		return best;
+	}
+
+	private void allocate(int w, int h) {
+		if (w == width && h == height)
+			return;
+		width = w;
+		height = h;
+		board = new long[h];
+		int maxCandidates = ROTATIONS * (w + MARGIN);
+		candidateRotation = new int[maxCandidates];
+		candidateX = new int[maxCandidates];
+		candidateScore = new double[maxCandidates];
+		int parallelism = pool == null ? 1 : pool.getParallelism() + 1;
+		scratches = new Scratch[parallelism];
+		for (int i = 0; i < scratches.length; i++)
+			scratches[i] = new Scratch(w, h);
+		plan = new Input[ROTATIONS + w + MARGIN + 1];
+	}
+
+	/** Rotations with the same shape at the same offset are searched once. */
+	private static boolean isDuplicateRotation(Tetromino piece) {
+		for (int r = 0; r < piece.getRotation(); r++)
+			if (Arrays.equals(piece.getRowMasks(), Tetromino
+					.getRotated(piece.getType(), r).getRowMasks()))
+				return true;
+		return false;
+	}
+
+	/** Check that the piece can be rotated in place to the target. */
+	private boolean canRotate(Tetromino active, Tetromino target, int px,
+			int py) {
+		int steps = (target.getRotation() - active.getRotation() + ROTATIONS)
+				% ROTATIONS;
+		if (steps == 3)
+			return Playfield.fits(board, fullRow, target.getRowMasks(), px, py);
+		Tetromino piece = active;
+		for (int i = 0; i < steps; i++) {
+			piece = piece.rotatedCW();
+			if (!Playfield.fits(board, fullRow, piece.getRowMasks(), px, py))
+				return false;
+		}
+		return true;
+	}
+
+	/** Check that the piece can be moved sideways between two columns. */
+	private boolean canSlide(int[] masks, int from, int to, int py) {
+		int dx = to < from ? -1 : 1;
+		for (int x = from; x != to; x += dx)
+			if (!Playfield.fits(board, fullRow, masks, x + dx, py))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Score the candidates in a range by the best placement of the next
+	 * piece after them.
+	 */
+	private void evaluate(Scratch s, int from, int to, int py,
+			Tetromino next) {
+		int top = top(board);
+		for (int i = from; i < to; i++) {
+			System.arraycopy(board, 0, s.first, 0, height);
+			int[] masks = Tetromino
+					.getRotated(activeType, candidateRotation[i])
+					.getRowMasks();
+			int lines = drop(s, s.first, top, masks, candidateX[i], py);
+			int firstTop = s.top;
+
+			// Best placement of the next piece, spawned at the top
+			double best = Double.NEGATIVE_INFINITY;
+			for (int r = 0; r < ROTATIONS; r++) {
+				Tetromino piece = Tetromino.getRotated(next.getType(), r);
+				if (isDuplicateRotation(piece))
+					continue;
+				for (int x = -MARGIN; x < width; x++) {
+					System.arraycopy(s.first, 0, s.second, 0, height);
+					int nextLines = drop(s, s.second, firstTop,
+							piece.getRowMasks(), x, 0);
+					if (nextLines >= 0)
+						best = Math.max(best, score(s, s.second, s.top,
+								lines + nextLines));
+				}
+			}
+			candidateScore[i] = best != Double.NEGATIVE_INFINITY ? best
+					: score(s, s.first, firstTop, lines) + GAME_OVER;
+		}
+	}
+
+	/** Get the index of the topmost non-empty row. */
+	private int top(long[] rows) {
+		int top = 0;
+		while (top < height && rows[top] == 0)
+			top++;
+		return top;
+	}
+
+	/**
+	 * Drop a piece straight down, lock it and clear the full lines. The rows
+	 * above {@link Scratch#top} are empty afterwards.
+	 *
+	 * @param rows the board.
+	 * @param top a row such that the rows above it are empty.
+	 * @return number of lines cleared, or -1 if the piece does not fit at
+	 *         the start position.
+	 */
+	private int drop(Scratch s, long[] rows, int top, int[] masks, int px,
+			int py) {
+		// Shift the piece once, a piece over either edge never fits
+		long[] bits = s.piece;
+		int n = masks.length;
+		for (int y = 0; y < n; y++) {
+			long b = Playfield.shift(masks[y], px);
+			if (Long.bitCount(b) != Integer.bitCount(masks[y])
+					|| (b & ~fullRow) != 0)
+				return -1;
+			bits[y] = b;
+		}
+		if (collides(rows, bits, n, py))
+			return -1;
+		// The piece falls freely through the empty rows above the stack
+		py = Math.max(py, top - n);
+		while (!collides(rows, bits, n, py + 1))
+			py++;
+		boolean full = false;
+		int pieceTop = height, pieceBottom = 0;
+		for (int y = 0; y < n; y++) {
+			if (bits[y] != 0) {
+				rows[py + y] |= bits[y];
+				full |= rows[py + y] == fullRow;
+				pieceTop = Math.min(pieceTop, py + y);
+				pieceBottom = py + y;
+			}
+		}
+		// Rows only move down when lines are cleared
+		top = Math.min(top, pieceTop);
+		s.top = top;
+		if (!full)
+			return 0;
+
+		// Compact the rows above the piece's bottom towards the bottom
+		int lines = 0;
+		for (int y = pieceBottom; y >= top; y--) {
+			if (rows[y] == fullRow)
+				lines++;
+			else if (lines > 0)
+				rows[y + lines] = rows[y];
+		}
+		for (int y = top; y < top + lines; y++)
+			rows[y] = 0;
+		return lines;
+	}
+
+	private boolean collides(long[] rows, long[] bits, int n, int py) {
+		for (int y = 0; y < n; y++) {
+			if (bits[y] == 0)
+				continue;
+			int row = py + y;
+			if (row < 0 || row >= height || (bits[y] & rows[row]) != 0)
+				return true;
+		}
+		return false;
+	}
+
+	/** Score a board with the heuristic, higher is better. */
+	private double score(Scratch s, long[] rows, int top, int lines) {
+		int[] heights = s.heights;
+		Arrays.fill(heights, 0);
+		long covered = 0;
+		int holes = 0;
+		for (int y = top; y < height; y++) {
+			long row = rows[y];
+			holes += Long.bitCount(covered & ~row);
+			long tops = row & ~covered;
+			while (tops != 0) {
+				heights[Long.numberOfTrailingZeros(tops)] = height - y;
+				tops &= tops - 1;
+			}
+			covered |= row;
+		}
+		int aggregate = 0, bumpiness = 0;
+		for (int x = 0; x < width; x++) {
+			aggregate += heights[x];
+			if (x > 0)
+				bumpiness += Math.abs(heights[x] - heights[x - 1]);
+		}
+		return HEIGHT * aggregate + LINES * lines + HOLES * holes
+				+ BUMPINESS * bumpiness;
+	}
+
+	/** Buffers for evaluating candidates in one thread. */
+	private static class Scratch {
+
+		final long[] first;
+		final long[] second;
+		final int[] heights;
+		final long[] piece = new long[4];
+		int top;
+
+		Scratch(int w, int h) {
+			first = new long[h];
+			second = new long[h];
+			heights = new int[w];
+		}
+	}
+
+	/**
+	 * Evaluates a range of candidates of a bot, splitting it in halves until
+	 * it is small enough. Each leaf takes a scratch of its own.
+	 */
+	// Fork/join tasks are never serialized
+	@SuppressWarnings("serial")
+	private static class Search extends RecursiveAction {
+
+		private final Bot bot;
+		private final int from, to, py;
+		private final Tetromino next;
+
+		Search(Bot bot, int from, int to, int py, Tetromino next) {
+			this.bot = bot;
+			this.from = from;
+			this.to = to;
+			this.py = py;
+			this.next = next;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SPLIT_THRESHOLD) {
+				Scratch s = bot.takeScratch();
+				try {
+					bot.evaluate(s, from, to, py, next);
+				} finally {
+					bot.releaseScratch(s);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Search(bot, from, middle, py, next),
+					new Search(bot, middle, to, py, next));
+		}
+	}
+
+	private synchronized Scratch takeScratch() {
+		for (int i = 0; i < scratches.length; i++) {
+			Scratch s = scratches[i];
+			if (s != null) {
+				scratches[i] = null;
+				return s;
+			}
+		}
+		// More leaves running at once than expected
+		return new Scratch(width, height);
+	}
+
+	private synchronized void releaseScratch(Scratch s) {
+		for (int i = 0; i < scratches.length; i++) {
+			if (scratches[i] == null) {
+				scratches[i] = s;
+				return;
+			}
+		}
+	}
+}
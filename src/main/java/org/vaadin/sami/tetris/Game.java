@@ -1,5 +1,7 @@
 package org.vaadin.sami.tetris;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Tetris game class.
  * 
@@ -13,23 +15,85 @@ package org.vaadin.sami.tetris;
  */
 public class Game {
 
-	private Grid playfield;
+	/** Number of upcoming pieces shown in the preview. */
+	public static final int PREVIEW_SIZE = 3;
+
+	/** Cell value of the garbage rows added with {@link #addGarbage}. */
+	public static final int GARBAGE = 8;
+
+	/** Cell value of the ghost piece rendered by {@link #updateState}. */
+	public static final int GHOST = 9;
+
+	/** Lines to clear to advance a level. */
+	public static final int LINES_PER_LEVEL = 10;
+
+	/** Highest level with a gravity of its own. */
+	public static final int MAX_GRAVITY_LEVEL = 20;
+
+	private Playfield playfield;
 	private int score;
+	private int lines;
 	private boolean gameOver;
 
 	private Tetromino activeTetrimino;
 	private int posX, posY;
 
+	private final PieceGenerator generator;
+	private final Tetromino[] preview = new Tetromino[PREVIEW_SIZE];
+	private int previewHead;
+	private long pieces;
+	private long changes;
+
+	// Bookkeeping of updateState()
+	private final long[] dirtyRows;
+	private Grid rendered;
+	private int renderedY, renderedGhostY, renderedHeight;
+
+	/**
+	 * Create a game with uniformly random pieces.
+	 */
 	public Game(int w, int h) {
-		playfield = new Grid(w, h);
+		this(w, h, PieceGenerator.random(ThreadLocalRandom.current().nextLong()));
+	}
+
+	/**
+	 * Create a game with pieces from the given generator.
+	 */
+	public Game(int w, int h, PieceGenerator generator) {
+		this.generator = generator;
+		playfield = new Playfield(w, h);
+		dirtyRows = new long[(h + 63) >>> 6];
 		score = 0;
 		gameOver = false;
-		activeTetrimino = Tetromino.getRandom();
-		posY = 0;
-		posX = (w - activeTetrimino.getWidth()) / 2;
+		for (int i = 0; i < PREVIEW_SIZE; i++)
+			preview[i] = generator.next();
+		spawn();
 		clear();
 	}
 
+	/** Take the next piece from the preview and place it on top. */
+	private void spawn() {
+		activeTetrimino = preview[previewHead];
+		preview[previewHead] = generator.next();
+		previewHead = (previewHead + 1) % PREVIEW_SIZE;
+		pieces++;
+		posY = 0;
+		posX = (playfield.getWidth() - activeTetrimino.getWidth()) / 2;
+	}
+
+	/**
+	 * Get an upcoming piece.
+	 *
+	 * @param index 0 for the next piece, up to {@link #PREVIEW_SIZE} - 1.
+	 */
+	public Tetromino getPreview(int index) {
+		return preview[(previewHead + index) % PREVIEW_SIZE];
+	}
+
+	public PieceGenerator getGenerator() {
+		return generator;
+	}
+
 	public int getWidth() {
 		return playfield.getWidth();
 	}
@@ -43,25 +107,102 @@ public class Game {
 	}
 
 	public Grid getCurrentState() {
-		Grid state = new Grid(playfield);
-		state.copy(activeTetrimino, posX, posY);
-		return state;
+		return getCurrentState(new Grid(getWidth(), getHeight()));
+	}
+
+	/**
+	 * Render the current state, i.e. the playfield with the active piece,
+	 * into the given grid. Nothing is allocated, so the same grid can be
+	 * reused for every frame.
+	 *
+	 * @param target grid of the same size as the playfield.
+	 * @return the given grid.
+	 */
+	public Grid getCurrentState(Grid target) {
+		if (target.getWidth() != getWidth()
+				|| target.getHeight() != getHeight())
+			throw new IllegalArgumentException("Grid size does not match");
+		for (int x = 0; x < getWidth(); x++)
+			for (int y = 0; y < getHeight(); y++)
+				target.set(x, y, playfield.get(x, y));
+		target.copy(activeTetrimino, posX, posY);
+		return target;
+	}
+
+	/**
+	 * Render the changes since the previous call into the given grid. Only
+	 * the rows of the playfield that changed and the rows of the active
+	 * piece, where it was and where it is now, are copied, so the cost
+	 * depends on the changes and not on the size of the playfield.
+	 *
+	 * The grid must hold the frame rendered by the previous call, so the
+	 * same grid is used for every frame. Any other grid is rendered in full.
+	 *
+	 * The landing position of the active piece is rendered as a ghost piece
+	 * of {@link #GHOST} cells.
+	 *
+	 * @param target grid of the same size as the playfield.
+	 * @param changedRows bit set the copied rows are added to, bit y % 64 of
+	 *            element y / 64 for row y.
+	 * @return the given grid.
+	 */
+	public Grid updateState(Grid target, long[] changedRows) {
+		if (target.getWidth() != getWidth()
+				|| target.getHeight() != getHeight())
+			throw new IllegalArgumentException("Grid size does not match");
+		playfield.takeChangedRows(dirtyRows);
+		if (target != rendered) {
+			rendered = target;
+			markRows(0, getHeight());
+		}
+		markRows(renderedY, renderedY + renderedHeight);
+		markRows(renderedGhostY, renderedGhostY + renderedHeight);
+		renderedY = posY;
+		renderedGhostY = getGhostY();
+		renderedHeight = activeTetrimino.getHeight();
+		markRows(renderedY, renderedY + renderedHeight);
+		markRows(renderedGhostY, renderedGhostY + renderedHeight);
+
+		int w = getWidth();
+		for (int i = 0; i < dirtyRows.length; i++) {
+			long bits = dirtyRows[i];
+			changedRows[i] |= bits;
+			dirtyRows[i] = 0;
+			for (; bits != 0; bits &= bits - 1) {
+				int y = i * 64 + Long.numberOfTrailingZeros(bits);
+				for (int x = 0; x < w; x++)
+					target.set(x, y, playfield.get(x, y));
+			}
+		}
+		for (int x = 0; x < activeTetrimino.getWidth(); x++)
+			for (int y = 0; y < activeTetrimino.getHeight(); y++)
+				if (!activeTetrimino.isEmpty(x, y)
+						&& posX + x >= 0 && posX + x < w
+						&& renderedGhostY + y >= 0
+						&& renderedGhostY + y < getHeight())
+					target.set(posX + x, renderedGhostY + y, GHOST);
+		target.copy(activeTetrimino, posX, posY);
+		return target;
+	}
+
+	private void markRows(int from, int to) {
+		for (int y = Math.max(from, 0); y < Math.min(to, getHeight()); y++)
+			dirtyRows[y >>> 6] |= 1L << y;
 	}
 
 	public boolean step() {
+		changes++;
 		if (!playfield.fitsInto(activeTetrimino, posX, posY + 1)) {
 
 			playfield.copy(activeTetrimino, posX, posY);
 
-			for (int j = playfield.getHeight() - 1; j >= 0; j--)
-				while (isFullLine(j)) {
-					clearLine(j);
-					score += 10;
-				}
+			// Only the rows of the piece can have become full
+			int cleared = playfield.clearFullRows(posY,
+					posY + activeTetrimino.getHeight());
+			score += 10 * cleared;
+			lines += cleared;
 
-			activeTetrimino = Tetromino.getRandom();
-			posY = 0;
-			posX = (playfield.getWidth() - activeTetrimino.getWidth()) / 2;
+			spawn();
 			if (!playfield.fitsInto(activeTetrimino, posX, posY))
 				this.gameOver = true;
 		} else {
@@ -70,23 +211,66 @@ public class Game {
 		return gameOver;
 	}
 
-	private boolean isFullLine(int y) {
-		for (int x = 0; x < playfield.getWidth(); x++)
-			if (playfield.isEmpty(x, y))
-				return false;
-		return true;
+	public int getScore() {
+		return score;
 	}
 
-	private void clearLine(int y) {
-		for (int j = y; j > 0; j--)
-			for (int i = 0; i < playfield.getWidth(); i++)
-				playfield.set(i, j, playfield.get(i, j - 1));
-		for (int i = 0; i < playfield.getWidth(); i++)
-			playfield.set(i, 0, 0);
+	/** Get the total number of lines cleared. */
+	public int getLines() {
+		return lines;
 	}
 
-	public int getScore() {
-		return score;
+	/** Get the level, which goes up every {@link #LINES_PER_LEVEL} lines. */
+	public int getLevel() {
+		return lines / LINES_PER_LEVEL + 1;
+	}
+
+	/**
+	 * Get the time between the gravity steps on the current level, as in
+	 * the Tetris Guideline: (0.8 - (level - 1) * 0.007) ^ (level - 1)
+	 * seconds. The formula is only defined up to
+	 * {@link #MAX_GRAVITY_LEVEL}, higher levels keep its gravity.
+	 *
+	 * @return the time in milliseconds, at least 1.
+	 */
+	public long getGravityMillis() {
+		int level = Math.min(getLevel(), MAX_GRAVITY_LEVEL) - 1;
+		double seconds = Math.pow(0.8 - level * 0.007, level);
+		return Math.max(1, Math.round(seconds * 1000));
+	}
+
+	/**
+	 * Add garbage rows to the bottom of the playfield, pushing everything
+	 * else up. The active piece is moved up if it would overlap the garbage.
+	 * The game is over if blocks are pushed over the top or the piece no
+	 * longer fits.
+	 *
+	 * @param count number of rows to add.
+	 * @param hole column of the hole in the garbage rows.
+	 */
+	public void addGarbage(int count, int hole) {
+		if (gameOver || count <= 0)
+			return;
+		changes++;
+		if (playfield.insertRows(count, hole, GARBAGE))
+			gameOver = true;
+		for (int i = 0; i < count
+				&& !playfield.fitsInto(activeTetrimino, posX, posY); i++)
+			posY--;
+		if (!playfield.fitsInto(activeTetrimino, posX, posY))
+			gameOver = true;
+	}
+
+	public Tetromino getActiveTetromino() {
+		return activeTetrimino;
+	}
+
+	public int getPosX() {
+		return posX;
+	}
+
+	public int getPosY() {
+		return posY;
 	}
 
 	public boolean isOver() {
@@ -97,31 +281,146 @@ public class Game {
 		if (!playfield.fitsInto(activeTetrimino, posX - 1, posY))
 			return;
 		posX--;
+		changes++;
 	}
 
 	public void moveRight() {
 		if (!playfield.fitsInto(activeTetrimino, posX + 1, posY))
 			return;
 		posX++;
+		changes++;
 	}
 
 	public void rotateCW() {
-		Tetromino test = new Tetromino(activeTetrimino);
-		test.rotateCW();
-		if (playfield.fitsInto(test, posX, posY))
-			activeTetrimino = test;
+		Tetromino rotated = activeTetrimino.rotatedCW();
+		if (playfield.fitsInto(rotated, posX, posY)) {
+			activeTetrimino = rotated;
+			changes++;
+		}
 	}
 
 	public void rotateCCW() {
-		Tetromino test = new Tetromino(activeTetrimino);
-		test.rotateCCW();
-		if (playfield.fitsInto(test, posX, posY))
-			activeTetrimino = test;
+		Tetromino rotated = activeTetrimino.rotatedCCW();
+		if (playfield.fitsInto(rotated, posX, posY)) {
+			activeTetrimino = rotated;
+			changes++;
+		}
+	}
+
+	/** Move the piece down by one row, if it fits. It is not locked. */
+	public void softDrop() {
+		if (!playfield.fitsInto(activeTetrimino, posX, posY + 1))
+			return;
+		posY++;
+		changes++;
+	}
+
+	/**
+	 * Apply an input to the game.
+	 *
+	 * @param input the input to apply.
+	 */
+	public void apply(Input input) {
+		switch (input) {
+		case MOVE_LEFT -> moveLeft();
+		case MOVE_RIGHT -> moveRight();
+		case ROTATE_CW -> rotateCW();
+		case ROTATE_CCW -> rotateCCW();
+		case DROP -> drop();
+		case STEP -> step();
+		case SOFT_DROP -> softDrop();
+		}
 	}
 
 	public void drop() {
-		while (playfield.fitsInto(activeTetrimino, posX, posY + 1))
-			posY++;
+		int y = getGhostY();
+		if (y != posY) {
+			posY = y;
+			changes++;
+		}
+	}
+
+	/**
+	 * Get the row where the active piece would land if dropped, without
+	 * moving it.
+	 *
+	 * The distance is computed from the column heights under the bottom of
+	 * the piece. Only when the piece is below the top of a column, i.e.
+	 * under an overhang, it is moved down row by row.
+	 *
+	 * @return the y position of the piece after a drop.
+	 */
+	public int getGhostY() {
+		if (gameOver)
+			return posY;
+		int[] bottoms = activeTetrimino.getColumnBottoms();
+		int h = playfield.getHeight();
+		int distance = h;
+		for (int x = 0; x < bottoms.length; x++) {
+			if (bottoms[x] < 0)
+				continue;
+			int bottom = posY + bottoms[x];
+			int top = h - playfield.getColumnHeight(posX + x);
+			if (bottom >= top)
+				return fallY();
+			distance = Math.min(distance, top - 1 - bottom);
+		}
+		return posY + distance;
+	}
+
+	/** Find the landing row by moving the piece down row by row. */
+	private int fallY() {
+		int y = posY;
+		while (playfield.fitsInto(activeTetrimino, posX, y + 1))
+			y++;
+		return y;
+	}
+
+	/**
+	 * Save the state of this game into a compact binary snapshot. Only games
+	 * using a {@link SeededPieceGenerator} can be saved.
+	 *
+	 * @return the snapshot, see {@link GameCodec} for the format.
+	 */
+	public byte[] snapshot() {
+		return GameCodec.encode(this);
+	}
+
+	/**
+	 * Restore a game saved with {@link #snapshot()}.
+	 *
+	 * @param snapshot the snapshot.
+	 * @return a new game in the saved state.
+	 */
+	public static Game restore(byte[] snapshot) {
+		return GameCodec.decode(snapshot);
+	}
+
+	/** Get the number of pieces spawned, i.e. the id of the active piece. */
+	long getPieceCount() {
+		return pieces;
+	}
+
+	/**
+	 * Get a counter that changes every time the state of the game changes,
+	 * to tell whether a new frame is needed.
+	 */
+	long getChangeCount() {
+		return changes;
+	}
+
+	Playfield getPlayfield() {
+		return playfield;
+	}
+
+	void setState(int score, int lines, boolean gameOver, Tetromino active,
+			int x, int y) {
+		this.score = score;
+		this.lines = lines;
+		this.gameOver = gameOver;
+		this.activeTetrimino = active;
+		this.posX = x;
+		this.posY = y;
 	}
 
 }
@@ -0,0 +1,199 @@
+package org.vaadin.sami.tetris;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact versioned binary format for the state of a {@link Game}.
+ *
+ * The format (version 2) is a bit stream of:
+ * <ul>
+ * <li>version, 8 bits</li>
+ * <li>width, height, score and lines cleared as variable length
+ * integers</li>
+ * <li>game over flag, 1 bit</li>
+ * <li>active piece type, 3 bits, and rotation, 2 bits</li>
+ * <li>piece position as zigzag encoded variable length integers</li>
+ * <li>generator kind, 1 bit, seed, 64 bits, and number of pieces generated
+ * as a variable length integer</li>
+ * <li>index of the topmost non-empty row as a variable length integer</li>
+ * <li>occupancy of each row from there on, one bit per cell</li>
+ * <li>value of each occupied cell, 4 bits per cell</li>
+ * </ul>
+ *
+ * The pieces in the preview are not stored, they are generated again from
+ * the seed. A typical game fits into a few tens of bytes.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+final class GameCodec {
+
+	private static final int VERSION = 2;
+
+	private static final int UNIFORM = 0;
+	private static final int BAG = 1;
+
+	private GameCodec() {
+	}
+
+	static byte[] encode(Game game) {
+		if (!(game.getGenerator() instanceof SeededPieceGenerator generator))
+			throw new IllegalStateException(
+					"Only games with seeded generators can be saved");
+
+		BitWriter out = new BitWriter();
+		out.write(VERSION, 8);
+		out.writeVarInt(game.getWidth());
+		out.writeVarInt(game.getHeight());
+		out.writeVarInt(game.getScore());
+		out.writeVarInt(game.getLines());
+		out.write(game.isOver() ? 1 : 0, 1);
+		out.write(game.getActiveTetromino().getType(), 3);
+		out.write(game.getActiveTetromino().getRotation(), 2);
+		out.writeVarInt(zigzag(game.getPosX()));
+		out.writeVarInt(zigzag(game.getPosY()));
+
+		out.write(generator instanceof BagPieceGenerator ? BAG : UNIFORM, 1);
+		out.write(generator.getSeed() >>> 32, 32);
+		out.write(generator.getSeed(), 32);
+		out.writeVarLong(generator.getCount());
+
+		Playfield playfield = game.getPlayfield();
+		int top = 0;
+		while (top < playfield.getHeight() && playfield.isEmptyRow(top))
+			top++;
+		out.writeVarInt(top);
+		for (int y = top; y < playfield.getHeight(); y++)
+			for (int x = 0; x < playfield.getWidth(); x++)
+				out.write(playfield.isEmpty(x, y) ? 0 : 1, 1);
+		for (int y = top; y < playfield.getHeight(); y++)
+			for (int x = 0; x < playfield.getWidth(); x++)
+				if (!playfield.isEmpty(x, y))
+					out.write(playfield.get(x, y), 4);
+
+		return out.toByteArray();
+	}
+
+	static Game decode(byte[] snapshot) {
+		BitReader in = new BitReader(snapshot);
+		int version = (int) in.read(8);
+		if (version != VERSION)
+			throw new IllegalArgumentException(
+					"Unsupported snapshot version " + version);
+
+		int w = in.readVarInt();
+		int h = in.readVarInt();
+		int score = in.readVarInt();
+		int lines = in.readVarInt();
+		boolean over = in.read(1) == 1;
+		int type = (int) in.read(3);
+		int rotation = (int) in.read(2);
+		int x = unzigzag(in.readVarInt());
+		int y = unzigzag(in.readVarInt());
+
+		int kind = (int) in.read(1);
+		long seed = in.read(32) << 32 | in.read(32);
+		long count = in.readVarLong();
+
+		// The new game generates the active piece and the preview again
+		SeededPieceGenerator generator = kind == BAG
+				? new BagPieceGenerator(seed)
+				: new UniformPieceGenerator(seed);
+		generator.skip(count - Game.PREVIEW_SIZE - 1);
+		Game game = new Game(w, h, generator);
+		game.setState(score, lines, over,
+				Tetromino.getRotated(type, rotation), x, y);
+
+		Playfield playfield = game.getPlayfield();
+		int top = in.readVarInt();
+		boolean[] occupied = new boolean[(h - top) * w];
+		for (int i = 0; i < occupied.length; i++)
+			occupied[i] = in.read(1) == 1;
+		for (int i = 0; i < occupied.length; i++)
+			if (occupied[i])
+				playfield.set(i % w, top + i / w, (int) in.read(4));
+
+		return game;
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/** Writes values of any bit length into a byte array. */
+	private static class BitWriter {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		private int current;
+		private int bits;
+
+		void write(long value, int length) {
+			for (int i = length - 1; i >= 0; i--) {
+				current = current << 1 | (int) (value >>> i & 1);
+				if (++bits == 8) {
+					bytes.write(current);
+					current = 0;
+					bits = 0;
+				}
+			}
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		void writeVarLong(long value) {
+			while ((value & ~0x7fL) != 0) {
+				write(value & 0x7f | 0x80, 8);
+				value >>>= 7;
+			}
+			write(value, 8);
+		}
+
+		byte[] toByteArray() {
+			if (bits > 0)
+				write(0, 8 - bits);
+			return bytes.toByteArray();
+		}
+	}
+
+	/** Reads values written by {@link BitWriter}. */
+	private static class BitReader {
+
+		private final byte[] data;
+		private int position;
+
+		BitReader(byte[] data) {
+			this.data = data;
+		}
+
+		long read(int length) {
+			long value = 0;
+			for (int i = 0; i < length; i++, position++) {
+				if (position >>> 3 >= data.length)
+					throw new IllegalArgumentException("Truncated snapshot");
+				int bit = data[position >>> 3] >>> (7 - (position & 7)) & 1;
+				value = value << 1 | bit;
+			}
+			return value;
+		}
+
+		int readVarInt() {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				long b = read(8);
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+		}
+	}
+}
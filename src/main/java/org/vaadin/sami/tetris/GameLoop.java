@@ -0,0 +1,226 @@
+package org.vaadin.sami.tetris;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.sami.metrics.Metric;
+import org.vaadin.sami.metrics.Metrics;
+
+/**
+ * Shared scheduler that drives the ticks of all active games.
+ *
+ * Instead of running a dedicated thread per game, each game registers a
+ * periodic {@link Task}. A small pool of daemon threads executes the tasks
+ * at their deadlines, so the number of threads stays constant no matter how
+ * many games are running.
+ *
+ * The loop also keeps track of tick lag, i.e. how late the tasks are run
+ * compared to their deadlines. The lag is also recorded in the global
+ * {@link Metrics}.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class GameLoop {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GameLoop.class);
+
+	private static final GameLoop SHARED = new GameLoop(Integer.getInteger(
+			"tetris.loop.threads",
+			Math.max(2, Runtime.getRuntime().availableProcessors())));
+
+	static {
+		Metrics.global().gauge("tetris_loop_tasks", SHARED::getActiveTasks);
+		Metrics.global().gauge("tetris_ticks_total", SHARED::getTickCount);
+	}
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final AtomicInteger activeTasks = new AtomicInteger();
+	private final LongAdder ticks = new LongAdder();
+	private final LongAdder totalLagNanos = new LongAdder();
+	private final AtomicLong maxLagNanos = new AtomicLong();
+
+	/**
+	 * Create a new game loop.
+	 *
+	 * @param threads number of threads used to run the ticks.
+	 */
+	public GameLoop(int threads) {
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ScheduledThreadPoolExecutor(threads, r -> {
+			Thread t = new Thread(r,
+					"game-loop-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/** Get the game loop shared by all games in this JVM. */
+	public static GameLoop getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Schedule a periodic task. The first tick is run after one period.
+	 *
+	 * @param tick the tick to run.
+	 * @param periodMillis time between the ticks in milliseconds.
+	 * @return handle to cancel the task.
+	 */
+	public Task schedule(Runnable tick, long periodMillis) {
+		Task task = new Task(tick, periodMillis);
+		activeTasks.incrementAndGet();
+		task.scheduleNext();
+		return task;
+	}
+
+	/**
+	 * Run a task once in the loop as soon as possible.
+	 *
+	 * @param task the task to run.
+	 */
+	public void execute(Runnable task) {
+		executor.execute(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.error("Game loop task failed", e);
+			}
+		});
+	}
+
+	/**
+	 * Run a task once in the loop after a delay.
+	 *
+	 * @param task the task to run.
+	 * @param delayNanos the delay in nanoseconds.
+	 */
+	public void executeAfter(Runnable task, long delayNanos) {
+		executor.schedule(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.error("Game loop task failed", e);
+			}
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/** Stop all the tasks and the threads of this loop. */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Get the number of periodic tasks currently scheduled. A task may run
+	 * any number of games, e.g. all the games of a battle.
+	 */
+	public int getActiveTasks() {
+		return activeTasks.get();
+	}
+
+	/** Get the total number of ticks run. */
+	public long getTickCount() {
+		return ticks.sum();
+	}
+
+	/** Get the average tick lag in nanoseconds. */
+	public long getAverageLagNanos() {
+		long count = ticks.sum();
+		return count == 0 ? 0 : totalLagNanos.sum() / count;
+	}
+
+	/** Get the maximum tick lag in nanoseconds. */
+	public long getMaxLagNanos() {
+		return maxLagNanos.get();
+	}
+
+	private void recordLag(long lagNanos) {
+		ticks.increment();
+		totalLagNanos.add(lagNanos);
+		maxLagNanos.accumulateAndGet(lagNanos, Math::max);
+		Metrics.global().record(Metric.TICK_LAG_NS, lagNanos);
+	}
+
+	/**
+	 * Periodic task scheduled in a {@link GameLoop}.
+	 */
+	public class Task {
+
+		private final Runnable tick;
+		private volatile long periodNanos;
+		private long deadline;
+		private volatile boolean cancelled;
+		private volatile ScheduledFuture<?> future;
+
+		private Task(Runnable tick, long periodMillis) {
+			this.tick = tick;
+			this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+			this.deadline = System.nanoTime();
+		}
+
+		private void scheduleNext() {
+			long now = System.nanoTime();
+			deadline += periodNanos;
+			// Do not try to catch up ticks that were missed
+			if (deadline < now) {
+				deadline = now;
+			}
+			future = executor.schedule(this::run, deadline - now,
+					TimeUnit.NANOSECONDS);
+		}
+
+		private void run() {
+			if (cancelled) {
+				return;
+			}
+			recordLag(Math.max(0, System.nanoTime() - deadline));
+			try {
+				tick.run();
+			} catch (RuntimeException e) {
+				LOG.error("Game tick failed, cancelling the task", e);
+				cancel();
+			}
+			if (!cancelled) {
+				scheduleNext();
+			}
+		}
+
+		/**
+		 * Change the time between the ticks. When called from the tick
+		 * itself, the next tick is scheduled with the new period. Otherwise
+		 * the tick already scheduled keeps the old period and the change
+		 * takes effect after it.
+		 *
+		 * @param periodMillis time between the ticks in milliseconds.
+		 */
+		public void setPeriod(long periodMillis) {
+			periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		}
+
+		/** Stop running this task. */
+		public void cancel() {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				cancelled = true;
+			}
+			activeTasks.decrementAndGet();
+			ScheduledFuture<?> f = future;
+			if (f != null) {
+				f.cancel(false);
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+}
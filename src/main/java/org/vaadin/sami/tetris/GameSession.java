@@ -0,0 +1,238 @@
+package org.vaadin.sami.tetris;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.vaadin.sami.metrics.Metric;
+import org.vaadin.sami.metrics.Metrics;
+
+/**
+ * A game running in a {@link GameLoop}.
+ *
+ * Inputs can be submitted from any thread. They are queued and applied in
+ * the game loop, so the game is only ever changed by one thread at a time.
+ * All the inputs pending at the time are applied together, followed by a
+ * single frame notification. Fast key repeat therefore costs one frame
+ * instead of one frame per key press.
+ *
+ * Frames are decoupled from the gravity steps. They are notified at most
+ * at the maximum frame rate, later changes being coalesced into the next
+ * frame, and not at all if nothing has changed. The number of frames stays
+ * bounded however fast the gravity on high levels is.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class GameSession {
+
+	private final Game game;
+	private final GameLoop loop;
+	private final Consumer<Game> frameListener;
+	private final Queue<Input> inputs = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	private volatile GameLoop.Task task;
+	private volatile InputLog.Recorder recorder;
+	private volatile Metrics metrics;
+	private volatile Bot bot;
+	private volatile long minFrameNanos = TimeUnit.SECONDS.toNanos(1) / 30;
+	private boolean adaptive;
+	private long lastChange = -1;
+	private long lastFrameNanos;
+	private boolean frameDirty;
+	private boolean frameScheduled;
+
+	/**
+	 * Create a new session.
+	 *
+	 * @param game the game to run.
+	 * @param loop the loop to run the game in.
+	 * @param frameListener called in the game loop every time the game has
+	 *            changed. The game must not be accessed outside this call.
+	 */
+	public GameSession(Game game, GameLoop loop, Consumer<Game> frameListener) {
+		this.game = game;
+		this.loop = loop;
+		this.frameListener = frameListener;
+	}
+
+	/**
+	 * Record the inputs and steps applied to the game. Must be set before
+	 * the session is started.
+	 *
+	 * @param recorder recorder for the game, or null to not record.
+	 */
+	public void setRecorder(InputLog.Recorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Record the time taken by the game steps.
+	 *
+	 * @param metrics metrics of the session, or null to not record.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Let a bot play the game. The bot moves each piece right after it has
+	 * appeared. Its inputs are recorded like the player's.
+	 *
+	 * @param bot the bot, or null to stop autoplay.
+	 */
+	public void setBot(Bot bot) {
+		this.bot = bot;
+	}
+
+	/**
+	 * Limit the rate of the frame notifications.
+	 *
+	 * @param framesPerSecond maximum number of frames per second, 30 by
+	 *            default.
+	 */
+	public void setMaxFrameRate(int framesPerSecond) {
+		minFrameNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+	}
+
+	/**
+	 * Start stepping the game with the gravity of its level. The steps get
+	 * faster as the level goes up. The first frame is notified immediately.
+	 */
+	public synchronized void start() {
+		adaptive = true;
+		start(game.getGravityMillis());
+	}
+
+	/**
+	 * Start stepping the game. The first frame is notified immediately.
+	 *
+	 * @param periodMillis time between the steps in milliseconds.
+	 */
+	public synchronized void start(long periodMillis) {
+		if (task != null)
+			return;
+		task = loop.schedule(() -> update(true, false), periodMillis);
+		loop.execute(() -> update(false, true));
+	}
+
+	/** Stop stepping the game. Pending inputs are discarded. */
+	public void stop() {
+		GameLoop.Task t = task;
+		if (t != null)
+			t.cancel();
+		inputs.clear();
+		if (recorder != null)
+			loop.execute(this::endRecording);
+	}
+
+	/**
+	 * Stop stepping the game without ending the recording, and save the
+	 * game as it was after the last update. The game can be continued in a
+	 * new session from {@link Game#restore(byte[])}, with the same recorder
+	 * set, so that the recording covers the whole game. Pending inputs are
+	 * discarded.
+	 *
+	 * @return snapshot of the game, or null if the session was not running.
+	 */
+	public synchronized byte[] pause() {
+		if (!isRunning())
+			return null;
+		task.cancel();
+		inputs.clear();
+		return game.snapshot();
+	}
+
+	private synchronized void endRecording() {
+		recorder.end(game.getScore());
+	}
+
+	public boolean isRunning() {
+		GameLoop.Task t = task;
+		return t != null && !t.isCancelled();
+	}
+
+	/**
+	 * Queue an input to be applied in the game loop.
+	 *
+	 * @param input the input to apply.
+	 */
+	public void submit(Input input) {
+		if (!isRunning())
+			return;
+		inputs.add(input);
+		if (drainScheduled.compareAndSet(false, true)) {
+			loop.execute(() -> {
+				drainScheduled.set(false);
+				update(false, false);
+			});
+		}
+	}
+
+	/**
+	 * Apply the pending inputs and optionally step the game, then request a
+	 * frame if the game has changed.
+	 */
+	private synchronized void update(boolean step, boolean forceFrame) {
+		if (!isRunning())
+			return;
+		int level = game.getLevel();
+		Input input;
+		while ((input = inputs.poll()) != null && !game.isOver())
+			apply(input);
+		Bot b = bot;
+		while (b != null && (input = b.nextInput(game)) != null)
+			apply(input);
+		if (step && !game.isOver()) {
+			long start = System.nanoTime();
+			apply(Input.STEP);
+			Metrics m = metrics;
+			if (m != null)
+				m.record(Metric.STEP_TIME_NS, System.nanoTime() - start);
+		}
+		if (adaptive && game.getLevel() != level)
+			task.setPeriod(game.getGravityMillis());
+		if (game.isOver())
+			stop();
+		if (forceFrame || game.getChangeCount() != lastChange) {
+			lastChange = game.getChangeCount();
+			frameDirty = true;
+			requestFrame();
+		}
+	}
+
+	/** Notify a frame now or as soon as the frame rate allows. */
+	private void requestFrame() {
+		if (frameScheduled)
+			return;
+		long wait = lastFrameNanos + minFrameNanos - System.nanoTime();
+		if (wait <= 0) {
+			notifyFrame();
+		} else {
+			frameScheduled = true;
+			loop.executeAfter(this::scheduledFrame, wait);
+		}
+	}
+
+	private synchronized void scheduledFrame() {
+		frameScheduled = false;
+		// The frame after the game has ended is notified too
+		if (frameDirty)
+			notifyFrame();
+	}
+
+	private void notifyFrame() {
+		frameDirty = false;
+		lastFrameNanos = System.nanoTime();
+		frameListener.accept(game);
+	}
+
+	private void apply(Input input) {
+		game.apply(input);
+		InputLog.Recorder r = recorder;
+		if (r != null)
+			r.record(input);
+	}
+}
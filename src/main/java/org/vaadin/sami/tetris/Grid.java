@@ -6,7 +6,7 @@ package org.vaadin.sami.tetris;
  * @author Sami Ekblad / Vaadin
  * 
  */
-public class Grid {
+public class Grid implements ReadOnlyGrid {
 
 	private static final int EMPTY_VALUE = 0;
 	private int[][] grid;
@@ -18,13 +18,13 @@ public class Grid {
 		grid = new int[gridW][gridH];
 	}
 
-	public Grid(Grid g) {
-		gridW = g.gridW;
-		gridH = g.gridH;
+	public Grid(ReadOnlyGrid g) {
+		gridW = g.getWidth();
+		gridH = g.getHeight();
 		grid = new int[gridW][gridH];
 		for (int x = 0; x < gridW; x++)
 			for (int y = 0; y < gridH; y++)
-				grid[x][y] = g.grid[x][y];
+				grid[x][y] = g.get(x, y);
 	}
 
 	public Grid(int[][] data) {
@@ -74,48 +74,51 @@ public class Grid {
 		gridH = tmp;
 	}
 
+	@Override
 	public int getWidth() {
 		return gridW;
 	}
 
+	@Override
 	public int getHeight() {
 		return gridH;
 	}
 
-	public void copy(Grid other, int px, int py) {
+	public void copy(ReadOnlyGrid other, int px, int py) {
 
-		int max_x = other.gridW;
-		if (other.gridW + px > gridW)
+		int max_x = other.getWidth();
+		if (other.getWidth() + px > gridW)
 			max_x = gridW - px;
 
-		int max_y = other.gridH;
+		int max_y = other.getHeight();
 		if (max_y + py > gridH)
 			max_y = gridH - py;
 
 		for (int x = 0; x < max_x; x++)
 			for (int y = 0; y < max_y; y++)
 				if ((px + x < gridW) && (py + y < gridH) && (px + x >= 0)
-						&& (py + y >= 0) && other.grid[x][y] != EMPTY_VALUE)
-					grid[px + x][py + y] = other.grid[x][y];
+						&& (py + y >= 0) && !other.isEmpty(x, y))
+					grid[px + x][py + y] = other.get(x, y);
 	}
 
-	public boolean fitsInto(Grid other, int px, int py) {
+	public boolean fitsInto(ReadOnlyGrid other, int px, int py) {
 
-		for (int x = 0; x < other.gridW; x++)
-			for (int y = 0; y < other.gridH; y++) {
+		for (int x = 0; x < other.getWidth(); x++)
+			for (int y = 0; y < other.getHeight(); y++) {
 				if ((px + x < gridW) && (py + y < gridH) && (px + x >= 0)
 						&& (py + y >= 0)) {
 					if (grid[px + x][py + y] != EMPTY_VALUE
-							&& other.grid[x][y] != EMPTY_VALUE) {
+							&& !other.isEmpty(x, y)) {
 						return false;
 					}
-				} else if (other.grid[x][y] != EMPTY_VALUE) {
+				} else if (!other.isEmpty(x, y)) {
 					return false;
 				}
 			}
 		return true;
 	}
 
+	@Override
 	public int get(int x, int y) {
 		return grid[x][y];
 	}
@@ -124,6 +127,7 @@ public class Grid {
 		grid[x][y] = value;
 	}
 
+	@Override
 	public boolean isEmpty(int x, int y) {
 		return grid[x][y] == EMPTY_VALUE;
 	}
@@ -0,0 +1,19 @@
+package org.vaadin.sami.tetris;
+
+/**
+ * Inputs that control a {@link Game}.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public enum Input {
+
+	MOVE_LEFT, MOVE_RIGHT, ROTATE_CW, ROTATE_CCW, DROP,
+
+	/** Gravity tick, moves the piece down by one row. */
+	STEP,
+
+	/** Moves the piece down by one row without locking it. */
+	SOFT_DROP;
+
+}
@@ -0,0 +1,195 @@
+package org.vaadin.sami.tetris;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of the inputs of many games.
+ *
+ * A game is fully determined by its piece generator seed and the sequence
+ * of inputs applied to it, so the log is enough to rebuild the final state
+ * of every game with {@link InputLogReplay}.
+ *
+ * Recording only queues the events. A background thread writes them to the
+ * file in batches, so no I/O is done in the game loop.
+ *
+ * The file is a sequence of records, each starting with a record type:
+ * <ul>
+ * <li>'S' game start: game id, start time, generator kind, seed, width and
+ * height</li>
+ * <li>'I' input: game id, milliseconds since start and the input</li>
+ * <li>'E' game end: game id, milliseconds since start and the score</li>
+ * </ul>
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class InputLog implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InputLog.class);
+
+	static final int START = 'S';
+	static final int INPUT = 'I';
+	static final int END = 'E';
+
+	static final int UNIFORM = 0;
+	static final int BAG = 1;
+
+	private static final int BATCH_SIZE = 4096;
+
+	private static final Event CLOSE = out -> {
+	};
+
+	private final AtomicLong nextGameId = new AtomicLong(
+			System.currentTimeMillis() << 16);
+	private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+	private final DataOutputStream out;
+	private final Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * Open a log for appending.
+	 *
+	 * @param file the log file, created if it does not exist.
+	 */
+	public InputLog(Path file) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file.toFile(), true), 64 * 1024));
+		writer = new Thread(this::writeEvents, "input-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Start recording a game. The game must be new and use a
+	 * {@link SeededPieceGenerator}.
+	 *
+	 * @param game the game to record.
+	 * @return recorder for the inputs of the game.
+	 */
+	public Recorder record(Game game) {
+		if (!(game.getGenerator() instanceof SeededPieceGenerator generator))
+			throw new IllegalStateException(
+					"Only games with seeded generators can be recorded");
+		long id = nextGameId.incrementAndGet();
+		long start = System.currentTimeMillis();
+		int kind = generator instanceof BagPieceGenerator ? BAG : UNIFORM;
+		long seed = generator.getSeed();
+		int w = game.getWidth(), h = game.getHeight();
+		enqueue(out -> {
+			out.writeByte(START);
+			out.writeLong(id);
+			out.writeLong(start);
+			out.writeByte(kind);
+			out.writeLong(seed);
+			out.writeShort(w);
+			out.writeShort(h);
+		});
+		return new Recorder(id, start);
+	}
+
+	/** Write all the queued events and close the file. */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueue(Event event) {
+		if (!closed)
+			queue.add(event);
+	}
+
+	private void writeEvents() {
+		List<Event> batch = new ArrayList<>(BATCH_SIZE);
+		try (DataOutputStream o = out) {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (Event event : batch) {
+					if (event == CLOSE)
+						return;
+					event.writeTo(o);
+				}
+				batch.clear();
+				o.flush();
+			}
+		} catch (IOException e) {
+			LOG.error("Writing input log failed, recording stopped", e);
+			closed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private interface Event {
+		void writeTo(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Records the inputs of one game. The inputs must be recorded in the
+	 * order they are applied to the game.
+	 */
+	public class Recorder {
+
+		private final long id;
+		private final long start;
+		private boolean ended;
+
+		private Recorder(long id, long start) {
+			this.id = id;
+			this.start = start;
+		}
+
+		/** Get the id of the game in the log. */
+		public long getGameId() {
+			return id;
+		}
+
+		/** Record an input applied to the game. */
+		public synchronized void record(Input input) {
+			if (ended)
+				return;
+			int time = (int) (System.currentTimeMillis() - start);
+			int ordinal = input.ordinal();
+			enqueue(out -> {
+				out.writeByte(INPUT);
+				out.writeLong(id);
+				out.writeInt(time);
+				out.writeByte(ordinal);
+			});
+		}
+
+		/** Record the end of the game. Nothing is recorded after this. */
+		public synchronized void end(int score) {
+			if (ended)
+				return;
+			ended = true;
+			int time = (int) (System.currentTimeMillis() - start);
+			enqueue(out -> {
+				out.writeByte(END);
+				out.writeLong(id);
+				out.writeInt(time);
+				out.writeInt(score);
+			});
+		}
+	}
+}
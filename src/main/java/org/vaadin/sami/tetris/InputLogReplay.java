@@ -0,0 +1,129 @@
+package org.vaadin.sami.tetris;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds games from an {@link InputLog}.
+ *
+ * The recorded inputs are applied to headless games as fast as possible,
+ * ignoring their timestamps. Comparing the replayed score with the score
+ * recorded at the end of the game tells whether the score is genuine.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class InputLogReplay {
+
+	private static final Input[] INPUTS = Input.values();
+
+	/**
+	 * A replayed game.
+	 *
+	 * @param gameId id of the game in the log.
+	 * @param game the game in its final state.
+	 * @param ended true if the end of the game was recorded.
+	 * @param recordedScore the score recorded at the end of the game.
+	 */
+	public record Replay(long gameId, Game game, boolean ended,
+			int recordedScore) {
+
+		/** Check if the replayed score matches the recorded one. */
+		public boolean isConsistent() {
+			return ended && game.getScore() == recordedScore;
+		}
+	}
+
+	private InputLogReplay() {
+	}
+
+	/**
+	 * Replay all the games in a log.
+	 *
+	 * @param file the log file.
+	 * @return the replayed games by game id, in the order they were started.
+	 */
+	public static Map<Long, Replay> replayAll(Path file) throws IOException {
+		return replayGames(file, -1);
+	}
+
+	/**
+	 * Replay a single game from a log.
+	 *
+	 * @param file the log file.
+	 * @param gameId id of the game.
+	 * @return the replayed game or null if the game is not in the log.
+	 */
+	public static Replay replay(Path file, long gameId) throws IOException {
+		return replayGames(file, gameId).get(gameId);
+	}
+
+	private static Map<Long, Replay> replayGames(Path file, long onlyGameId)
+			throws IOException {
+		Map<Long, Replay> replays = new LinkedHashMap<>();
+		try (InputStream is = Files.newInputStream(file);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(is, 64 * 1024))) {
+			while (true) {
+				int type;
+				try {
+					type = in.readUnsignedByte();
+				} catch (EOFException e) {
+					break;
+				}
+				try {
+					readRecord(in, type, onlyGameId, replays);
+				} catch (EOFException e) {
+					// Last record was not completely written
+					break;
+				}
+			}
+		}
+		return replays;
+	}
+
+	private static void readRecord(DataInputStream in, int type,
+			long onlyGameId, Map<Long, Replay> replays) throws IOException {
+		long id = in.readLong();
+		boolean include = onlyGameId < 0 || id == onlyGameId;
+		switch (type) {
+		case InputLog.START -> {
+			in.readLong();
+			int kind = in.readUnsignedByte();
+			long seed = in.readLong();
+			int w = in.readUnsignedShort();
+			int h = in.readUnsignedShort();
+			if (include) {
+				PieceGenerator generator = kind == InputLog.BAG
+						? PieceGenerator.bag(seed)
+						: PieceGenerator.random(seed);
+				replays.put(id, new Replay(id, new Game(w, h, generator),
+						false, 0));
+			}
+		}
+		case InputLog.INPUT -> {
+			in.readInt();
+			Input input = INPUTS[in.readUnsignedByte()];
+			Replay replay = include ? replays.get(id) : null;
+			if (replay != null && !replay.game().isOver())
+				replay.game().apply(input);
+		}
+		case InputLog.END -> {
+			in.readInt();
+			int score = in.readInt();
+			Replay replay = include ? replays.get(id) : null;
+			if (replay != null)
+				replays.put(id, new Replay(id, replay.game(), true, score));
+		}
+		default -> throw new IOException("Corrupted input log, record type "
+				+ type);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package org.vaadin.sami.tetris;
+
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A battle between two or more games running in a {@link GameLoop}.
+ *
+ * Clearing lines sends garbage rows to an opponent: 1 row for a double, 2
+ * for a triple and 4 for a tetris. The opponents are targeted in turn.
+ *
+ * The match is a single threaded actor. Inputs, ticks and forfeits are
+ * posted to a mailbox, and the messages are processed by one loop thread at
+ * a time, so the games can interact without locks. A single periodic task
+ * steps all the games of the match on the same tick, and thousands of
+ * matches can share the loop the same way as {@link GameSession}s do.
+ *
+ * The games of a match are not recorded, since garbage rows are not
+ * inputs and could not be replayed.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class Match {
+
+	/** Garbage rows sent by clearing 0 to 4 lines at once. */
+	private static final int[] ATTACK = { 0, 0, 1, 2, 4 };
+
+	private static final int TICK = -1;
+
+	/**
+	 * Receives the frames and the result of a match. Called in the game loop,
+	 * the games must not be accessed outside these calls.
+	 */
+	public interface Listener {
+
+		/**
+		 * A game of the match has changed.
+		 *
+		 * @param player index of the player.
+		 * @param game the game of the player.
+		 */
+		void frame(int player, Game game);
+
+		/**
+		 * The match has ended.
+		 *
+		 * @param winner index of the winning player, or -1 if nobody won.
+		 */
+		void finished(int winner);
+	}
+
+	private record Message(int player, Input input) {
+	}
+
+	private final Game[] games;
+	private final boolean[] out;
+	private final int[] lines;
+	private final GameLoop loop;
+	private final Listener listener;
+	private final SplittableRandom random;
+	private final Queue<Message> mailbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final boolean[] changed;
+	private volatile GameLoop.Task task;
+	private int nextTarget;
+	private boolean finished;
+
+	/**
+	 * Create a new match.
+	 *
+	 * @param games the games of the players, at least two.
+	 * @param seed seed for the holes in the garbage rows.
+	 * @param loop the loop to run the match in.
+	 * @param listener listener for the frames and the result.
+	 */
+	public Match(Game[] games, long seed, GameLoop loop, Listener listener) {
+		if (games.length < 2)
+			throw new IllegalArgumentException("A match needs two players");
+		this.games = games.clone();
+		this.out = new boolean[games.length];
+		this.lines = new int[games.length];
+		this.changed = new boolean[games.length];
+		this.random = new SplittableRandom(seed);
+		this.loop = loop;
+		this.listener = listener;
+	}
+
+	/** Get the number of players. */
+	public int getPlayers() {
+		return games.length;
+	}
+
+	/**
+	 * Start stepping the games. The first frames are notified immediately.
+	 *
+	 * @param periodMillis time between the steps in milliseconds.
+	 */
+	public synchronized void start(long periodMillis) {
+		if (task != null)
+			return;
+		for (int i = 0; i < games.length; i++) {
+			lines[i] = games[i].getLines();
+			changed[i] = true;
+		}
+		task = loop.schedule(() -> post(new Message(TICK, Input.STEP)),
+				periodMillis);
+		post(new Message(TICK, null));
+	}
+
+	/** Stop the match without a winner. */
+	public void stop() {
+		GameLoop.Task t = task;
+		if (t != null)
+			t.cancel();
+		mailbox.clear();
+	}
+
+	public boolean isRunning() {
+		GameLoop.Task t = task;
+		return t != null && !t.isCancelled();
+	}
+
+	/**
+	 * Queue an input of a player.
+	 *
+	 * @param player index of the player.
+	 * @param input the input to apply.
+	 */
+	public void submit(int player, Input input) {
+		if (isRunning())
+			post(new Message(player, input));
+	}
+
+	/**
+	 * Give up the match, e.g. when a player leaves.
+	 *
+	 * @param player index of the player.
+	 */
+	public void forfeit(int player) {
+		if (isRunning())
+			post(new Message(player, null));
+	}
+
+	private void post(Message message) {
+		mailbox.add(message);
+		if (scheduled.compareAndSet(false, true))
+			loop.execute(this::drain);
+	}
+
+	/** Process the messages in the mailbox. Only one thread at a time. */
+	private void drain() {
+		do {
+			Message message;
+			while ((message = mailbox.poll()) != null)
+				process(message);
+			notifyFrames();
+			scheduled.set(false);
+		} while (!mailbox.isEmpty() && scheduled.compareAndSet(false, true));
+	}
+
+	private void process(Message message) {
+		if (finished)
+			return;
+		if (message.player() == TICK) {
+			for (int i = 0; i < games.length; i++) {
+				if (isOut(i) && message.input() != null)
+					continue;
+				if (message.input() != null)
+					apply(i, message.input());
+				changed[i] = true;
+			}
+		} else if (!isOut(message.player())) {
+			if (message.input() == null)
+				out[message.player()] = true;
+			else
+				apply(message.player(), message.input());
+			changed[message.player()] = true;
+		}
+	}
+
+	private boolean isOut(int player) {
+		return out[player] || games[player].isOver();
+	}
+
+	/**
+	 * Apply an input to a game and send garbage for the lines it cleared.
+	 * Only a step can lock a piece, so each lock is checked on its own even
+	 * when several steps are processed in one drain.
+	 */
+	private void apply(int player, Input input) {
+		games[player].apply(input);
+		int cleared = games[player].getLines() - lines[player];
+		if (cleared == 0)
+			return;
+		lines[player] += cleared;
+		int attack = cleared < ATTACK.length ? ATTACK[cleared] : cleared;
+		int target = attack > 0 ? nextTarget(player) : -1;
+		if (target >= 0) {
+			Game game = games[target];
+			game.addGarbage(attack, random.nextInt(game.getWidth()));
+			changed[target] = true;
+		}
+	}
+
+	/** Get the next opponent still in the game, or -1 if none. */
+	private int nextTarget(int attacker) {
+		for (int n = 0; n < games.length; n++) {
+			int target = nextTarget;
+			nextTarget = (nextTarget + 1) % games.length;
+			if (target != attacker && !isOut(target))
+				return target;
+		}
+		return -1;
+	}
+
+	private void notifyFrames() {
+		if (finished)
+			return;
+		int alive = 0, winner = -1;
+		for (int i = 0; i < games.length; i++) {
+			if (changed[i]) {
+				changed[i] = false;
+				listener.frame(i, games[i]);
+			}
+			if (!isOut(i)) {
+				alive++;
+				winner = i;
+			}
+		}
+		if (alive <= 1) {
+			finished = true;
+			stop();
+			listener.finished(winner);
+		}
+	}
+}
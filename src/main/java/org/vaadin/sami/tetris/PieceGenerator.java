@@ -0,0 +1,36 @@
+package org.vaadin.sami.tetris;
+
+/**
+ * Source of the pieces for a {@link Game}.
+ *
+ * Each game has its own generator, so games do not share any random state.
+ * The seeded generators produce the same sequence of pieces for the same
+ * seed, which makes games reproducible.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public interface PieceGenerator {
+
+	/** Get the next piece. */
+	Tetromino next();
+
+	/**
+	 * Create a generator that picks each piece uniformly at random.
+	 *
+	 * @param seed the random seed.
+	 */
+	static PieceGenerator random(long seed) {
+		return new UniformPieceGenerator(seed);
+	}
+
+	/**
+	 * Create a generator that deals the pieces from shuffled bags of all
+	 * seven pieces, as specified in the Tetris Guideline.
+	 *
+	 * @param seed the random seed.
+	 */
+	static PieceGenerator bag(long seed) {
+		return new BagPieceGenerator(seed);
+	}
+}
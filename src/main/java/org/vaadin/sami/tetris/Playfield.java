@@ -0,0 +1,363 @@
+package org.vaadin.sami.tetris;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Bit-packed playfield.
+ *
+ * The occupancy of each row is kept as a bit mask, and the cell values in a
+ * separate byte plane indexed by row. This makes fitting a {@link Tetromino}
+ * a few shift and AND operations per row, detecting a full line a single
+ * compare and clearing a line an array shift.
+ *
+ * A row of up to 64 columns is a single long. Wider rows take several
+ * consecutive longs, so boards of up to {@link #MAX_WIDTH} columns work the
+ * same way with a few more words per row.
+ *
+ * The playfield also keeps track of the rows changed since the changes were
+ * last taken with {@link #takeChangedRows(long[])}, so a renderer only needs
+ * to look at those rows.
+ *
+ * The number of occupied cells of each row and the height of each column
+ * are updated as the cells change. Full rows are found by the count, and
+ * {@link #clearFullRows(int, int)} removes all the full rows of a range in
+ * one pass, so locking a piece costs about the size of the piece plus one
+ * shift of the rows above it.
+ *
+ * Cell values must fit into a byte.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class Playfield implements ReadOnlyGrid {
+
+	public static final int MAX_WIDTH = 1024;
+
+	private final int width;
+	private final int height;
+	private final int words;
+	private final long fullRow;
+	private final long[] rows;
+	private final byte[][] values;
+	private final long[] changed;
+	private final int[] counts;
+	private final int[] heights;
+	private final byte[][] recycled;
+
+	public Playfield(int w, int h) {
+		if (w < 1 || w > MAX_WIDTH || h < 1)
+			throw new IllegalArgumentException(
+					"Invalid playfield size " + w + "x" + h);
+		width = w;
+		height = h;
+		words = (w + 63) >>> 6;
+		// Mask of the last word of a full row
+		fullRow = w % 64 == 0 ? -1L : (1L << w % 64) - 1;
+		rows = new long[h * words];
+		values = new byte[h][w];
+		changed = new long[(h + 63) >>> 6];
+		counts = new int[h];
+		heights = new int[w];
+		recycled = new byte[h][];
+		markAllChanged();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int get(int x, int y) {
+		return values[y][x];
+	}
+
+	public void set(int x, int y, int value) {
+		values[y][x] = (byte) value;
+		int i = y * words + (x >>> 6);
+		long bit = 1L << x;
+		if (value != 0 && (rows[i] & bit) == 0) {
+			rows[i] |= bit;
+			counts[y]++;
+			heights[x] = Math.max(heights[x], getHeight() - y);
+		} else if (value == 0 && (rows[i] & bit) != 0) {
+			rows[i] &= ~bit;
+			counts[y]--;
+			if (heights[x] == getHeight() - y)
+				heights[x] = columnHeight(x, y + 1);
+		}
+		changed[y >>> 6] |= 1L << y;
+	}
+
+	@Override
+	public boolean isEmpty(int x, int y) {
+		return (rows[y * words + (x >>> 6)] & (1L << x)) == 0;
+	}
+
+	public void fill(int px, int py, int w, int h, int value) {
+		int minX = Math.max(px, 0), maxX = Math.min(px + w, getWidth());
+		int minY = Math.max(py, 0), maxY = Math.min(py + h, getHeight());
+		for (int y = minY; y < maxY; y++)
+			for (int x = minX; x < maxX; x++)
+				set(x, y, value);
+	}
+
+	/** Copy the non-empty cells of another grid to the given position. */
+	public void copy(ReadOnlyGrid other, int px, int py) {
+		for (int x = 0; x < other.getWidth(); x++)
+			for (int y = 0; y < other.getHeight(); y++)
+				if (px + x >= 0 && px + x < getWidth() && py + y >= 0
+						&& py + y < getHeight() && !other.isEmpty(x, y))
+					set(px + x, py + y, other.get(x, y));
+	}
+
+	/**
+	 * Check if the non-empty cells of another grid fit into the empty cells
+	 * of this one at the given position.
+	 */
+	public boolean fitsInto(ReadOnlyGrid other, int px, int py) {
+		if (!(other instanceof Tetromino piece)) {
+			return fitsIntoByCells(other, px, py);
+		}
+		int[] masks = piece.getRowMasks();
+		if (words == 1)
+			return fits(rows, fullRow, masks, px, py);
+		return fitsWide(masks, px, py);
+	}
+
+	/**
+	 * Check if a piece fits into a board of single word row masks.
+	 *
+	 * @param rows occupancy of each row of the board.
+	 * @param fullRow mask of a full row.
+	 * @param masks occupancy of each row of the piece.
+	 * @param px x position of the piece.
+	 * @param py y position of the piece.
+	 */
+	static boolean fits(long[] rows, long fullRow, int[] masks, int px,
+			int py) {
+		for (int y = 0; y < masks.length; y++) {
+			int mask = masks[y];
+			if (mask == 0)
+				continue;
+			int row = py + y;
+			if (row < 0 || row >= rows.length)
+				return false;
+			long bits = shift(mask, px);
+			// Cells shifted over either edge are lost or land outside
+			if (Long.bitCount(bits) != Integer.bitCount(mask)
+					|| (bits & ~fullRow) != 0 || (bits & rows[row]) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** Check if a piece fits into a board of several words per row. */
+	private boolean fitsWide(int[] masks, int px, int py) {
+		for (int y = 0; y < masks.length; y++) {
+			int mask = masks[y];
+			if (mask == 0)
+				continue;
+			int row = py + y;
+			int left = px + Integer.numberOfTrailingZeros(mask);
+			int right = px + 31 - Integer.numberOfLeadingZeros(mask);
+			if (row < 0 || row >= getHeight() || left < 0
+					|| right >= getWidth())
+				return false;
+			// A piece spans at most two words
+			for (int word = left >>> 6; word <= right >>> 6; word++)
+				if ((shift(mask, px - word * 64) & rows[row * words + word]) != 0)
+					return false;
+		}
+		return true;
+	}
+
+	private boolean fitsIntoByCells(ReadOnlyGrid other, int px, int py) {
+		for (int x = 0; x < other.getWidth(); x++)
+			for (int y = 0; y < other.getHeight(); y++) {
+				if (other.isEmpty(x, y))
+					continue;
+				if (px + x < 0 || px + x >= getWidth() || py + y < 0
+						|| py + y >= getHeight() || !isEmpty(px + x, py + y))
+					return false;
+			}
+		return true;
+	}
+
+	static long shift(int mask, int px) {
+		if (px >= 0)
+			return px < 64 ? (long) mask << px : 0;
+		return -px < 32 ? mask >>> -px : 0;
+	}
+
+	/** Get the number of longs per row. */
+	int getWords() {
+		return words;
+	}
+
+	/** Get the mask of a full row, for single word rows. */
+	long getFullRow() {
+		return fullRow;
+	}
+
+	/**
+	 * Copy the occupancy of the rows.
+	 *
+	 * @param target array of at least {@link #getHeight()} times
+	 *            {@link #getWords()} elements.
+	 */
+	void copyRows(long[] target) {
+		System.arraycopy(rows, 0, target, 0, rows.length);
+	}
+
+	/** Check if all cells of a row are occupied. */
+	public boolean isFullRow(int y) {
+		return counts[y] == getWidth();
+	}
+
+	/** Check if all cells of a row are empty. */
+	public boolean isEmptyRow(int y) {
+		return counts[y] == 0;
+	}
+
+	/** Get the number of occupied cells in a row. */
+	public int getRowCount(int y) {
+		return counts[y];
+	}
+
+	/**
+	 * Get the height of a column: the number of rows from the bottom up to
+	 * and including the highest occupied cell, 0 for an empty column.
+	 */
+	public int getColumnHeight(int x) {
+		return heights[x];
+	}
+
+	/** Get the height of a column looking from the given row down. */
+	private int columnHeight(int x, int from) {
+		int y = from;
+		while (y < getHeight() && isEmpty(x, y))
+			y++;
+		return getHeight() - y;
+	}
+
+	/**
+	 * Remove the full rows within a range and shift the rows above them
+	 * down. All the rows are moved once, however many are removed.
+	 *
+	 * @param from first row to check.
+	 * @param to row after the last row to check.
+	 * @return the number of rows removed.
+	 */
+	public int clearFullRows(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, getHeight());
+		int cleared = 0;
+		for (int y = to - 1; y >= from; y--) {
+			if (counts[y] == getWidth())
+				recycled[cleared++] = values[y];
+			else if (cleared > 0)
+				moveRow(y, y + cleared);
+		}
+		if (cleared == 0)
+			return 0;
+
+		// The rows above the range move by the same amount
+		System.arraycopy(rows, 0, rows, cleared * words, from * words);
+		System.arraycopy(values, 0, values, cleared, from);
+		System.arraycopy(counts, 0, counts, cleared, from);
+		Arrays.fill(rows, 0, cleared * words, 0);
+		Arrays.fill(counts, 0, cleared, 0);
+		for (int y = 0; y < cleared; y++) {
+			Arrays.fill(recycled[y], (byte) 0);
+			values[y] = recycled[y];
+			recycled[y] = null;
+		}
+
+		// A full row has a cell in every column, so every column top was at
+		// or above the highest removed row and has moved down
+		for (int x = 0; x < getWidth(); x++)
+			if (heights[x] > 0)
+				heights[x] = columnHeight(x, getHeight() - heights[x]);
+		markChanged(0, to);
+		return cleared;
+	}
+
+	private void moveRow(int from, int to) {
+		System.arraycopy(rows, from * words, rows, to * words, words);
+		values[to] = values[from];
+		counts[to] = counts[from];
+	}
+
+	/**
+	 * Insert rows at the bottom and shift all the rows up. The inserted rows
+	 * are filled with the given value except for one hole.
+	 *
+	 * @param count number of rows to insert.
+	 * @param hole column of the hole in the inserted rows.
+	 * @param value value of the inserted cells.
+	 * @return true if any occupied cell was pushed over the top.
+	 */
+	public boolean insertRows(int count, int hole, int value) {
+		Objects.checkIndex(hole, getWidth());
+		int h = getHeight();
+		count = Math.min(count, h);
+		boolean overflow = false;
+		for (int y = 0; y < count; y++) {
+			overflow |= !isEmptyRow(y);
+			recycled[y] = values[y];
+		}
+		System.arraycopy(rows, count * words, rows, 0, (h - count) * words);
+		System.arraycopy(values, count, values, 0, h - count);
+		System.arraycopy(counts, count, counts, 0, h - count);
+		for (int i = 0; i < count; i++) {
+			int y = h - count + i;
+			byte[] row = recycled[i];
+			recycled[i] = null;
+			Arrays.fill(row, (byte) value);
+			row[hole] = 0;
+			values[y] = row;
+			counts[y] = getWidth() - 1;
+			Arrays.fill(rows, y * words, (y + 1) * words, -1L);
+			rows[(y + 1) * words - 1] = fullRow;
+			rows[y * words + (hole >>> 6)] &= ~(1L << hole);
+		}
+		for (int x = 0; x < getWidth(); x++) {
+			if (heights[x] + count > h)
+				// Cells were pushed over the top
+				heights[x] = columnHeight(x, 0);
+			else if (x != hole || heights[x] > 0)
+				heights[x] += count;
+		}
+		markAllChanged();
+		return overflow;
+	}
+
+	/**
+	 * Take the set of rows changed since the last call.
+	 *
+	 * @param target bit set of the changed rows, bit y of word y / 64 for
+	 *            row y. The changed rows are added to it.
+	 */
+	public void takeChangedRows(long[] target) {
+		for (int i = 0; i < changed.length; i++) {
+			target[i] |= changed[i];
+			changed[i] = 0;
+		}
+	}
+
+	private void markChanged(int from, int to) {
+		for (int y = from; y < to; y++)
+			changed[y >>> 6] |= 1L << y;
+	}
+
+	private void markAllChanged() {
+		markChanged(0, getHeight());
+	}
+}
@@ -0,0 +1,24 @@
+package org.vaadin.sami.tetris;
+
+/**
+ * Read access to a grid of integer values, where 0 is an empty cell.
+ *
+ * {@link Grid} and {@link Playfield} are the mutable grids. A
+ * {@link Tetromino} is only readable, so it can be copied into and fitted
+ * into the mutable grids but never changed itself.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public interface ReadOnlyGrid {
+
+	int getWidth();
+
+	int getHeight();
+
+	int get(int x, int y);
+
+	default boolean isEmpty(int x, int y) {
+		return get(x, y) == 0;
+	}
+}
@@ -0,0 +1,62 @@
+package org.vaadin.sami.tetris;
+
+/**
+ * Base class for piece generators with their own seeded random numbers.
+ *
+ * Random numbers come from a SplitMix64 sequence kept in a single long, so
+ * the generator is cheap, needs no synchronization and its sequence is
+ * fully determined by the seed.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public abstract class SeededPieceGenerator implements PieceGenerator {
+
+	private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final long seed;
+	private long state;
+	private long count;
+
+	protected SeededPieceGenerator(long seed) {
+		this.seed = seed;
+		this.state = seed;
+	}
+
+	@Override
+	public final Tetromino next() {
+		count++;
+		return Tetromino.get(nextType());
+	}
+
+	/** Get the type, 1 to 7, of the next piece. */
+	protected abstract int nextType();
+
+	/** Get a random number from 0 (inclusive) to bound (exclusive). */
+	protected int nextInt(int bound) {
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	private long nextLong() {
+		long z = (state += GAMMA);
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Skip over a number of pieces. */
+	public void skip(long pieces) {
+		for (long i = 0; i < pieces; i++)
+			next();
+	}
+
+	/** Get the seed of this generator. */
+	public long getSeed() {
+		return seed;
+	}
+
+	/** Get the number of pieces generated so far. */
+	public long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,60 @@
+package org.vaadin.sami.tetris;
+
+import java.util.SplittableRandom;
+
+/**
+ * Headless driver that plays games without any UI at full speed.
+ *
+ * Games can be played from a scripted sequence of inputs or from random
+ * inputs. There are no pauses between the steps, so the simulator can be
+ * used for testing and benchmarking the game engine.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class Simulator {
+
+	private static final Input[] PLAYER_INPUTS = { Input.MOVE_LEFT,
+			Input.MOVE_RIGHT, Input.ROTATE_CW, Input.ROTATE_CCW, Input.DROP };
+
+	private Simulator() {
+	}
+
+	/**
+	 * Apply a scripted sequence of inputs to a game. Stops at the end of the
+	 * script or when the game is over.
+	 *
+	 * @param game the game to play.
+	 * @param script the inputs, {@link Input#STEP} for gravity ticks.
+	 * @return the given game.
+	 */
+	public static Game play(Game game, Iterable<Input> script) {
+		for (Input input : script) {
+			if (game.isOver())
+				break;
+			game.apply(input);
+		}
+		return game;
+	}
+
+	/**
+	 * Play a game with random inputs until it is over or the maximum number
+	 * of steps is reached.
+	 *
+	 * @param game the game to play.
+	 * @param seed seed for the random inputs.
+	 * @param inputsPerStep maximum number of inputs between two steps.
+	 * @param maxSteps maximum number of steps to play.
+	 * @return the given game.
+	 */
+	public static Game playRandom(Game game, long seed, int inputsPerStep,
+			long maxSteps) {
+		SplittableRandom random = new SplittableRandom(seed);
+		for (long step = 0; step < maxSteps && !game.isOver(); step++) {
+			for (int i = random.nextInt(inputsPerStep + 1); i > 0; i--)
+				game.apply(PLAYER_INPUTS[random.nextInt(PLAYER_INPUTS.length)]);
+			game.step();
+		}
+		return game;
+	}
+}
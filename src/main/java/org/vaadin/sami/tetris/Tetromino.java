@@ -1,21 +1,31 @@
 package org.vaadin.sami.tetris;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Tetriminoes class.
+ *
+ * Tetrominoes are immutable. All four orientations of each of the seven
+ * pieces are created once and shared, so rotating a piece is a table lookup.
+ * A piece is read through {@link ReadOnlyGrid}, e.g. when it is copied into
+ * a {@link Grid}.
+ *
  * Based on the Tetris Guidelines at
  * <a href="https://tetris.fandom.com/wiki/Tetris_Guideline">tetris.fandom.com/wiki/Tetris_Guideline</a>.
  *
  * @author Sami Ekblad / Vaadin
  *
  */
-public class Tetromino extends Grid {
+public final class Tetromino implements ReadOnlyGrid {
 
 	private static final String LABELS = "IJLOSTZ";
 
 	private static final String[] COLORS = new String[] { "#0ff", "#00f", "#ffa500",
 			"#ff0", "#0f0", "#800080", "#f00" };
 
-	private static final Tetromino[] ALL = new Tetromino[7];
+	private static final int ROTATIONS = 4;
+
+	private static final Tetromino[][] ALL = new Tetromino[7][ROTATIONS];
 
 	static {
 
@@ -26,7 +36,7 @@ public class Tetromino extends Grid {
 				new int[] { 0, 1, 0, 0 },
 				new int[] { 0, 1, 0, 0 },
 				new int[] { 0, 1, 0, 0 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'I', index);
+		createRotations(g, 'I', index);
 
 		// 'J'
 		index++;
@@ -34,7 +44,7 @@ public class Tetromino extends Grid {
 				new int[] { 2, 2, 0 },
 				new int[] { 0, 2, 0 },
 				new int[] { 0, 2, 0 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'J', index);
+		createRotations(g, 'J', index);
 
 		// 'L'
 		index++;
@@ -42,14 +52,14 @@ public class Tetromino extends Grid {
 				new int[] { 0, 3, 0 },
 				new int[] { 0, 3, 0 },
 				new int[] { 3, 3, 0 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'L', index);
+		createRotations(g, 'L', index);
 
 		// 'O'
 		index++;
 		g = new Grid(new int[][] {
 				new int[] { 4, 4 },
 				new int[] { 4, 4 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'O', index);
+		createRotations(g, 'O', index);
 
 		// 'S'
 		index++;
@@ -57,7 +67,7 @@ public class Tetromino extends Grid {
 				new int[] { 0, 5, 0 },
 				new int[] { 5, 5, 0 },
 				new int[] { 5, 0, 0 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'S', index);
+		createRotations(g, 'S', index);
 
 		// 'T'
 		index++;
@@ -65,7 +75,7 @@ public class Tetromino extends Grid {
 				new int[] { 0, 6, 0 },
 				new int[] { 6, 6, 0 },
 				new int[] { 0, 6, 0 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'T', index);
+		createRotations(g, 'T', index);
 
 		// 'Z'
 		index++;
@@ -73,38 +83,102 @@ public class Tetromino extends Grid {
 				new int[] { 7, 0, 0 },
 				new int[] { 7, 7, 0 },
 				new int[] { 0, 7, 0 } });
-		ALL[index] = new Tetromino(g, COLORS[index], 'Z', index);
+		createRotations(g, 'Z', index);
 
 	}
 
+	private final int[][] cells;
 	private final int index;
+	private final int rotation;
 	private final char label;
 	private final String color;
-
-	private Tetromino(Grid g, String color, char letter, int index) {
-		super(g);
+	private final int[] rowMasks;
+	private final int[] columnBottoms;
+
+	private Tetromino(Grid g, String color, char letter, int index,
+			int rotation) {
+		this.cells = new int[g.getWidth()][g.getHeight()];
+		for (int x = 0; x < g.getWidth(); x++)
+			for (int y = 0; y < g.getHeight(); y++)
+				cells[x][y] = g.get(x, y);
 		this.index = index;
+		this.rotation = rotation;
 		this.label = letter;
 		this.color = color;
+		this.rowMasks = new int[getHeight()];
+		for (int y = 0; y < getHeight(); y++)
+			for (int x = 0; x < getWidth(); x++)
+				if (!isEmpty(x, y))
+					rowMasks[y] |= 1 << x;
+		this.columnBottoms = new int[getWidth()];
+		for (int x = 0; x < getWidth(); x++) {
+			columnBottoms[x] = -1;
+			for (int y = 0; y < getHeight(); y++)
+				if (!isEmpty(x, y))
+					columnBottoms[x] = y;
+		}
+	}
+
+	/** Create all the orientations of a piece, rotating clockwise. */
+	private static void createRotations(Grid g, char letter, int index) {
+		Grid rotated = new Grid(g);
+		for (int r = 0; r < ROTATIONS; r++) {
+			ALL[index][r] = new Tetromino(rotated, COLORS[index], letter,
+					index, r);
+			rotated.rotateCW();
+		}
+	}
+
+	/** Get this piece rotated clockwise. */
+	public Tetromino rotatedCW() {
+		return ALL[index][(rotation + 1) % ROTATIONS];
+	}
+
+	/** Get this piece rotated counter clockwise. */
+	public Tetromino rotatedCCW() {
+		return ALL[index][(rotation + ROTATIONS - 1) % ROTATIONS];
+	}
+
+	@Override
+	public int getWidth() {
+		return cells.length;
+	}
+
+	@Override
+	public int getHeight() {
+		return cells[0].length;
+	}
+
+	@Override
+	public int get(int x, int y) {
+		return cells[x][y];
 	}
 
 	/**
-	 * Create a copy of another Tetrimino.
-	 * 
-	 * @param other the other Tetrimino to copy.
+	 * Get the occupied cells as one bit mask per row. Bit x of mask y is
+	 * set when the cell (x, y) is not empty.
 	 */
-	public Tetromino(Tetromino other) {
-		super(other);
-		this.index = other.index;
-		this.label = other.label;
-		this.color = other.color;
+	int[] getRowMasks() {
+		return rowMasks;
+	}
 
+	/**
+	 * Get the bottom profile of the piece: the lowest occupied row of each
+	 * column, or -1 for an empty column.
+	 */
+	int[] getColumnBottoms() {
+		return columnBottoms;
 	}
 
 	/** Get a tetrimino by type 1 to 7 */
 	public static Tetromino get(int type) {
+		return getRotated(type, 0);
+	}
+
+	/** Get a tetrimino by type 1 to 7 in the given orientation 0 to 3 */
+	public static Tetromino getRotated(int type, int rotation) {
 		if (type > 0 && type <= 7) {
-			return ALL[type - 1];
+			return ALL[type - 1][rotation & (ROTATIONS - 1)];
 		}
 		return null;
 	}
@@ -114,9 +188,21 @@ public class Tetromino extends Grid {
 		return get(LABELS.indexOf(letter));
 	}
 
-	/** Get a random Tetromino. */
+	/**
+	 * Get a random Tetromino. Games use a {@link PieceGenerator} instead.
+	 */
 	public static Tetromino getRandom() {
-		return ALL[(int) (Math.random() * 7.0)];
+		return ALL[ThreadLocalRandom.current().nextInt(7)][0];
+	}
+
+	/** Get the type of this tetrimino, 1 to 7 */
+	public int getType() {
+		return index + 1;
+	}
+
+	/** Get the orientation of this tetrimino, 0 to 3 */
+	public int getRotation() {
+		return rotation;
 	}
 
 	public char getLabel() {
@@ -0,0 +1,19 @@
+package org.vaadin.sami.tetris;
+
+/**
+ * Piece generator that picks each piece uniformly at random.
+ *
+ * @author Sami Ekblad / Vaadin
+ *
+ */
+public class UniformPieceGenerator extends SeededPieceGenerator {
+
+	public UniformPieceGenerator(long seed) {
+		super(seed);
+	}
+
+	@Override
+	protected int nextType() {
+		return 1 + nextInt(7);
+	}
+}
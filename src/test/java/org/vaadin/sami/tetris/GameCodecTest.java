@@ -0,0 +1,78 @@
+package org.vaadin.sami.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class GameCodecTest {
+
+	private static final int W = 10;
+	private static final int H = 20;
+
+	@Test
+	void restoredBagGameContinuesLikeTheOriginal() {
+		roundTrip(PieceGenerator.bag(42), 1);
+	}
+
+	@Test
+	void restoredUniformGameContinuesLikeTheOriginal() {
+		roundTrip(PieceGenerator.random(7), 2);
+	}
+
+	@Test
+	void unknownVersionIsRejected() {
+		byte[] snapshot = new Game(W, H, PieceGenerator.bag(1)).snapshot();
+		snapshot[0] = 1;
+		assertThrows(IllegalArgumentException.class,
+				() -> Game.restore(snapshot));
+	}
+
+	private static void roundTrip(PieceGenerator generator, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		Game original = new Game(W, H, generator);
+		for (int i = 0; i < 300 && !original.isOver(); i++) {
+			play(original, random);
+			if (i % 50 == 0)
+				original.addGarbage(1, random.nextInt(W));
+		}
+
+		Game restored = Game.restore(original.snapshot());
+		assertSameState(original, restored);
+
+		// The same inputs give the same pieces and boards from here on
+		long seedAfter = random.nextLong();
+		SplittableRandom a = new SplittableRandom(seedAfter);
+		SplittableRandom b = new SplittableRandom(seedAfter);
+		for (int i = 0; i < 500; i++) {
+			play(original, a);
+			play(restored, b);
+			assertSameState(original, restored);
+		}
+	}
+
+	private static void play(Game game, SplittableRandom random) {
+		Input[] inputs = Input.values();
+		game.apply(inputs[random.nextInt(inputs.length)]);
+		game.apply(Input.STEP);
+	}
+
+	private static void assertSameState(Game expected, Game actual) {
+		assertEquals(expected.getScore(), actual.getScore());
+		assertEquals(expected.getLines(), actual.getLines());
+		assertEquals(expected.isOver(), actual.isOver());
+		assertSame(expected.getActiveTetromino(), actual.getActiveTetromino());
+		assertEquals(expected.getPosX(), actual.getPosX());
+		assertEquals(expected.getPosY(), actual.getPosY());
+		for (int i = 0; i < Game.PREVIEW_SIZE; i++)
+			assertSame(expected.getPreview(i), actual.getPreview(i));
+		Playfield e = expected.getPlayfield();
+		Playfield p = actual.getPlayfield();
+		for (int y = 0; y < H; y++)
+			for (int x = 0; x < W; x++)
+				assertEquals(e.get(x, y), p.get(x, y), "cell " + x + "," + y);
+	}
+}
@@ -0,0 +1,111 @@
+package org.vaadin.sami.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class GameSessionTest {
+
+	private static final int W = 10;
+	private static final int H = 20;
+
+	private static final int O = 4;
+
+	/** Slow enough for the test to make many changes between frames. */
+	private static final int FRAME_RATE = 2;
+	private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1)
+			/ FRAME_RATE;
+
+	/** No gravity steps during a test. */
+	private static final long PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private record Frame(long nanos, long changes, boolean over) {
+	}
+
+	@Test
+	void changesBetweenFramesAreCoalescedIntoOneFrame()
+			throws InterruptedException {
+		GameLoop loop = new GameLoop(1);
+		try {
+			Game game = new Game(W, H, PieceGenerator.bag(1));
+			List<Frame> frames = new CopyOnWriteArrayList<>();
+			GameSession session = new GameSession(game, loop,
+					g -> frames.add(new Frame(System.nanoTime(),
+							g.getChangeCount(), g.isOver())));
+			session.setMaxFrameRate(FRAME_RATE);
+			session.start(PERIOD_MILLIS);
+			awaitFirstFrame(frames);
+
+			for (int i = 0; i < 20; i++)
+				session.submit(i % 2 == 0 ? Input.MOVE_LEFT : Input.MOVE_RIGHT);
+			Thread.sleep(TimeUnit.NANOSECONDS.toMillis(FRAME_NANOS * 3));
+			session.stop();
+
+			// The first frame right away, and one more for all the changes
+			assertEquals(2, frames.size(), "frames " + frames);
+			assertTrue(frames.get(1).nanos() - frames.get(0).nanos()
+					>= FRAME_NANOS * 8 / 10, "frames too close " + frames);
+			assertTrue(frames.get(1).changes() > frames.get(0).changes());
+			assertEquals(expectedChanges(loop, game), frames.get(1).changes());
+		} finally {
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	void theFrameOfTheEndedGameIsNotified() throws InterruptedException {
+		GameLoop loop = new GameLoop(1);
+		try {
+			// Only O pieces, and a stack up to the second row, so the next
+			// piece does not fit once the first one is locked
+			Game game = new Game(W, H, () -> Tetromino.get(O));
+			game.getPlayfield().fill(1, 2, W - 1, H - 2, 1);
+			List<Frame> frames = new CopyOnWriteArrayList<>();
+			GameSession session = new GameSession(game, loop,
+					g -> frames.add(new Frame(System.nanoTime(),
+							g.getChangeCount(), g.isOver())));
+			session.setMaxFrameRate(FRAME_RATE);
+			session.start(PERIOD_MILLIS);
+			awaitFirstFrame(frames);
+
+			session.submit(Input.STEP);
+			Thread.sleep(TimeUnit.NANOSECONDS.toMillis(FRAME_NANOS * 3));
+
+			assertFalse(session.isRunning());
+			assertEquals(2, frames.size(), "frames " + frames);
+			assertFalse(frames.get(0).over());
+			assertTrue(frames.get(1).over());
+		} finally {
+			loop.shutdown();
+		}
+	}
+
+	/** Wait for the frame notified when the session starts. */
+	private static void awaitFirstFrame(List<Frame> frames)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (frames.isEmpty() && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertEquals(1, frames.size());
+	}
+
+	/** Get the change count of a game, read in the loop. */
+	private static long expectedChanges(GameLoop loop, Game game)
+			throws InterruptedException {
+		long[] changes = new long[1];
+		CountDownLatch done = new CountDownLatch(1);
+		loop.execute(() -> {
+			changes[0] = game.getChangeCount();
+			done.countDown();
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		return changes[0];
+	}
+}
@@ -0,0 +1,170 @@
+package org.vaadin.sami.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class GameTest {
+
+	private static final int O = 4;
+
+	@Test
+	void ghostMatchesARowByRowFall() {
+		SplittableRandom random = new SplittableRandom(3);
+		// Wide playfields have more than one word per row
+		int[][] sizes = { { 10, 20 }, { 4, 8 }, { 70, 30 } };
+		for (int[] size : sizes) {
+			int w = size[0], h = size[1];
+			int checked = 0;
+			for (int n = 0; n < 500; n++) {
+				Game game = new Game(w, h, PieceGenerator.bag(n));
+				Playfield playfield = game.getPlayfield();
+				// Denser towards the bottom, with holes and overhangs
+				for (int y = h / 3; y < h; y++)
+					for (int x = 0; x < w; x++)
+						if (random.nextInt(h) < y - h / 4)
+							playfield.set(x, y, 1 + random.nextInt(7));
+
+				Tetromino piece = Tetromino.getRotated(1 + random.nextInt(7),
+						random.nextInt(4));
+				int x = random.nextInt(-1, w - 1);
+				int y = random.nextInt(h - 1);
+				if (!fits(playfield, piece, x, y))
+					continue;
+				game.setState(0, 0, false, piece, x, y);
+
+				int expected = fall(playfield, piece, x, y);
+				assertEquals(expected, game.getGhostY(), "ghost of "
+						+ piece.getLabel() + " at " + x + "," + y + " on " + w
+						+ "x" + h);
+				game.drop();
+				assertEquals(expected, game.getPosY());
+				assertEquals(x, game.getPosX());
+				checked++;
+			}
+			assertTrue(checked > 100, "only " + checked + " positions checked");
+		}
+	}
+
+	@Test
+	void ghostUnderAnOverhangLandsBelowIt() {
+		Game game = new Game(10, 20, PieceGenerator.bag(1));
+		Playfield playfield = game.getPlayfield();
+		// A shelf over an empty space, and a block further down
+		playfield.fill(0, 12, 4, 1, 1);
+		playfield.fill(0, 19, 1, 1, 1);
+		Tetromino piece = Tetromino.get(O);
+		game.setState(0, 0, false, piece, 0, 14);
+
+		assertEquals(17, game.getGhostY());
+		game.drop();
+		game.step();
+		assertEquals(O, playfield.get(0, 17));
+		assertEquals(O, playfield.get(1, 18));
+	}
+
+	@Test
+	void ghostOverTheStackLandsOnIt() {
+		Game game = new Game(10, 20, PieceGenerator.bag(1));
+		Playfield playfield = game.getPlayfield();
+		playfield.fill(0, 12, 4, 1, 1);
+		Tetromino piece = Tetromino.get(O);
+		game.setState(0, 0, false, piece, 1, 0);
+
+		assertEquals(10, game.getGhostY());
+	}
+
+	@Test
+	void updateStateCopiesEveryChangedRowAndTellsWhichChanged() {
+		// Tall playfields have more than one word of changed rows
+		int[][] sizes = { { 10, 20 }, { 8, 130 } };
+		for (int[] size : sizes) {
+			int w = size[0], h = size[1];
+			SplittableRandom random = new SplittableRandom(w);
+			Game game = new Game(w, h, PieceGenerator.bag(w));
+			Grid target = new Grid(w, h);
+			long[] changedRows = new long[(h + 63) >>> 6];
+
+			// A new grid is rendered in full
+			game.updateState(target, changedRows);
+			for (int y = 0; y < h; y++)
+				assertTrue(isSet(changedRows, y), "row " + y);
+			assertGrid(render(game), target);
+
+			Input[] inputs = Input.values();
+			for (int i = 0; i < 2000 && !game.isOver(); i++) {
+				game.apply(inputs[random.nextInt(inputs.length)]);
+				if (i % 100 == 99)
+					game.addGarbage(1 + random.nextInt(2), random.nextInt(w));
+
+				Grid previous = new Grid(target);
+				Arrays.fill(changedRows, 0);
+				game.updateState(target, changedRows);
+				assertGrid(render(game), target);
+				for (int y = 0; y < h; y++)
+					for (int x = 0; x < w; x++)
+						if (previous.get(x, y) != target.get(x, y))
+							assertTrue(isSet(changedRows, y),
+									"changed row " + y + " not marked");
+			}
+		}
+	}
+
+	/** Check if a piece fits, cell by cell. */
+	private static boolean fits(Playfield playfield, Tetromino piece, int px,
+			int py) {
+		for (int x = 0; x < piece.getWidth(); x++)
+			for (int y = 0; y < piece.getHeight(); y++) {
+				if (piece.isEmpty(x, y))
+					continue;
+				if (px + x < 0 || px + x >= playfield.getWidth() || py + y < 0
+						|| py + y >= playfield.getHeight()
+						|| !playfield.isEmpty(px + x, py + y))
+					return false;
+			}
+		return true;
+	}
+
+	/** Move a piece down row by row until it no longer fits. */
+	private static int fall(Playfield playfield, Tetromino piece, int x,
+			int y) {
+		while (fits(playfield, piece, x, y + 1))
+			y++;
+		return y;
+	}
+
+	/**
+	 * Render a game from scratch: the playfield, the ghost piece and the
+	 * active piece.
+	 */
+	private static Grid render(Game game) {
+		Grid grid = new Grid(game.getWidth(), game.getHeight());
+		Playfield playfield = game.getPlayfield();
+		for (int x = 0; x < game.getWidth(); x++)
+			for (int y = 0; y < game.getHeight(); y++)
+				grid.set(x, y, playfield.get(x, y));
+		Tetromino piece = game.getActiveTetromino();
+		int ghostY = game.getGhostY();
+		for (int x = 0; x < piece.getWidth(); x++)
+			for (int y = 0; y < piece.getHeight(); y++)
+				if (!piece.isEmpty(x, y))
+					grid.set(game.getPosX() + x, ghostY + y, Game.GHOST);
+		grid.copy(piece, game.getPosX(), game.getPosY());
+		return grid;
+	}
+
+	private static void assertGrid(Grid expected, Grid actual) {
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				assertEquals(expected.get(x, y), actual.get(x, y),
+						"cell " + x + "," + y);
+	}
+
+	private static boolean isSet(long[] rows, int y) {
+		return (rows[y >>> 6] & (1L << y)) != 0;
+	}
+}
@@ -0,0 +1,119 @@
+package org.vaadin.sami.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class MatchTest {
+
+	private static final int W = 10;
+	private static final int H = 20;
+
+	private static final int I = 1;
+	private static final int O = 4;
+
+	/** Garbage rows expected for clearing 0 to 4 lines with one lock. */
+	private static final int[] ATTACK = { 0, 0, 1, 2, 4 };
+
+	private static final Match.Listener IGNORE = new Match.Listener() {
+		@Override
+		public void frame(int player, Game game) {
+		}
+
+		@Override
+		public void finished(int winner) {
+		}
+	};
+
+	@Test
+	void oneLockAttacksByTheLinesItCleared() throws InterruptedException {
+		for (int lines = 1; lines <= 4; lines++) {
+			GameLoop loop = new GameLoop(1);
+			try {
+				Game attacker = new Game(W, H, () -> Tetromino.get(I));
+				Game opponent = new Game(W, H, PieceGenerator.bag(lines));
+				attacker.getPlayfield().fill(1, H - lines, W - 1, lines, 2);
+				Match match = new Match(new Game[] { attacker, opponent },
+						lines, loop, IGNORE);
+				match.start(TimeUnit.MINUTES.toMillis(1));
+
+				dropInLeftColumn(match, verticalRotation(I));
+				settle(loop);
+
+				assertEquals(lines, attacker.getLines());
+				assertEquals(ATTACK[lines], garbageRows(opponent),
+						"garbage for " + lines + " lines");
+			} finally {
+				loop.shutdown();
+			}
+		}
+	}
+
+	@Test
+	void eachLockAttacksOnItsOwn() throws InterruptedException {
+		GameLoop loop = new GameLoop(1);
+		try {
+			Game attacker = new Game(W, H, () -> Tetromino.get(O));
+			Game opponent = new Game(W, H, PieceGenerator.bag(1));
+			attacker.getPlayfield().fill(2, H - 4, W - 2, 4, 2);
+			Match match = new Match(new Game[] { attacker, opponent }, 1,
+					loop, IGNORE);
+			match.start(TimeUnit.MINUTES.toMillis(1));
+
+			// Two doubles in a row are two attacks of 1, not one of 4
+			dropInLeftColumn(match, 0);
+			dropInLeftColumn(match, 0);
+			settle(loop);
+
+			assertEquals(4, attacker.getLines());
+			assertEquals(2, garbageRows(opponent));
+		} finally {
+			loop.shutdown();
+		}
+	}
+
+	/** Rotate the piece of player 0, move it to the left edge and lock it. */
+	private static void dropInLeftColumn(Match match, int rotations) {
+		for (int i = 0; i < rotations; i++)
+			match.submit(0, Input.ROTATE_CW);
+		for (int i = 0; i < W; i++)
+			match.submit(0, Input.MOVE_LEFT);
+		match.submit(0, Input.DROP);
+		match.submit(0, Input.STEP);
+	}
+
+	/** Get the rotation of a piece in which it is one column wide. */
+	private static int verticalRotation(int type) {
+		for (int r = 0; r < 4; r++) {
+			int columns = 0;
+			for (int mask : Tetromino.getRotated(type, r).getRowMasks())
+				columns |= mask;
+			if (Integer.bitCount(columns) == 1)
+				return r;
+		}
+		throw new AssertionError("No vertical rotation");
+	}
+
+	/** Wait until the messages posted so far have been processed. */
+	private static void settle(GameLoop loop) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		loop.execute(done::countDown);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	private static int garbageRows(Game game) {
+		Playfield playfield = game.getPlayfield();
+		int rows = 0;
+		for (int y = 0; y < H; y++)
+			for (int x = 0; x < W; x++)
+				if (playfield.get(x, y) == Game.GARBAGE) {
+					rows++;
+					break;
+				}
+		return rows;
+	}
+}
@@ -0,0 +1,84 @@
+package org.vaadin.sami.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+import org.junit.jupiter.api.Test;
+
+class PieceGeneratorTest {
+
+	private static final int PIECES = 1000;
+
+	@Test
+	void sameSeedGivesTheSamePieces() {
+		assertDeterministic(PieceGenerator::bag);
+		assertDeterministic(PieceGenerator::random);
+	}
+
+	@Test
+	void differentSeedsGiveDifferentPieces() {
+		assertFalse(Arrays.equals(types(PieceGenerator.bag(1)),
+				types(PieceGenerator.bag(2))));
+		assertFalse(Arrays.equals(types(PieceGenerator.random(1)),
+				types(PieceGenerator.random(2))));
+	}
+
+	@Test
+	void everyBagHasAllSevenPieces() {
+		int[] types = types(PieceGenerator.bag(11));
+		for (int bag = 0; bag + 7 <= types.length; bag += 7) {
+			boolean[] seen = new boolean[8];
+			for (int i = bag; i < bag + 7; i++) {
+				assertFalse(seen[types[i]], "piece " + types[i]
+						+ " twice in the bag at " + bag);
+				seen[types[i]] = true;
+			}
+		}
+	}
+
+	@Test
+	void uniformPiecesAreAllUsed() {
+		int[] counts = new int[8];
+		for (int type : types(PieceGenerator.random(5)))
+			counts[type]++;
+		for (int type = 1; type <= 7; type++)
+			assertTrue(counts[type] > PIECES / 14, "piece " + type + " seen "
+					+ counts[type] + " times");
+	}
+
+	@Test
+	void skipGoesAsFarAsGeneratingThePieces() {
+		for (long skip : new long[] { 0, 1, 6, 7, 8, 100 }) {
+			SeededPieceGenerator generated = new BagPieceGenerator(9);
+			for (long i = 0; i < skip; i++)
+				generated.next();
+			SeededPieceGenerator skipped = new BagPieceGenerator(9);
+			skipped.skip(skip);
+
+			assertEquals(skip, skipped.getCount());
+			for (int i = 0; i < 20; i++)
+				assertSame(generated.next(), skipped.next(), "after " + skip);
+		}
+	}
+
+	private static void assertDeterministic(LongFunction<PieceGenerator> create) {
+		for (long seed : new long[] { 0, 1, -1, 42, Long.MIN_VALUE })
+			assertTrue(Arrays.equals(types(create.apply(seed)),
+					types(create.apply(seed))), "seed " + seed);
+	}
+
+	private static int[] types(PieceGenerator generator) {
+		int[] types = new int[PIECES];
+		for (int i = 0; i < PIECES; i++) {
+			Tetromino piece = generator.next();
+			assertEquals(0, piece.getRotation());
+			types[i] = piece.getType();
+		}
+		return types;
+	}
+}
@@ -0,0 +1,118 @@
+package org.vaadin.sami.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PlayfieldTest {
+
+	private static final int W = 10;
+	private static final int H = 12;
+
+	@Test
+	void clearsOneToFourFullRowsWithGapsBetweenThem() {
+		for (int count = 1; count <= 4; count++) {
+			Playfield playfield = new Playfield(W, H);
+			// Full rows every other row from the bottom, partial rows with
+			// a gap in a different column between and above them
+			int[][] expected = new int[H][W];
+			int next = H - 1;
+			for (int y = H - 1; y >= H - 2 * count - 2; y--) {
+				boolean full = (H - 1 - y) % 2 == 0 && (H - 1 - y) / 2 < count;
+				for (int x = 0; x < W; x++) {
+					int value = full || x != y % W ? 1 + (x + y) % 7 : 0;
+					playfield.set(x, y, value);
+					if (!full)
+						expected[next][x] = value;
+				}
+				if (!full)
+					next--;
+			}
+
+			assertEquals(count, playfield.clearFullRows(0, H));
+			assertCells(expected, playfield);
+			assertCountsAndHeights(playfield);
+		}
+	}
+
+	@Test
+	void clearsOnlyWithinTheRange() {
+		Playfield playfield = new Playfield(W, H);
+		playfield.fill(0, H - 2, W, 2, 1);
+		assertEquals(1, playfield.clearFullRows(H - 2, H - 1));
+		assertTrue(playfield.isEmptyRow(H - 2));
+		assertTrue(playfield.isFullRow(H - 1));
+		assertCountsAndHeights(playfield);
+	}
+
+	@Test
+	void insertsOneToFourRowsWithAHole() {
+		for (int count = 1; count <= 4; count++) {
+			Playfield playfield = new Playfield(W, H);
+			int[][] expected = new int[H][W];
+			// A few partial rows with gaps at the bottom
+			for (int y = H - 3; y < H; y++)
+				for (int x = 0; x < W; x++)
+					if (x != y % W && x % 3 != 0) {
+						playfield.set(x, y, 2);
+						expected[y - count][x] = 2;
+					}
+			int hole = count * 2;
+			for (int y = H - count; y < H; y++)
+				for (int x = 0; x < W; x++)
+					expected[y][x] = x == hole ? 0 : Game.GARBAGE;
+
+			assertFalse(playfield.insertRows(count, hole, Game.GARBAGE));
+			assertCells(expected, playfield);
+			assertCountsAndHeights(playfield);
+			for (int y = H - count; y < H; y++)
+				assertEquals(W - 1, playfield.getRowCount(y));
+		}
+	}
+
+	@Test
+	void insertingRowsTellsWhenCellsArePushedOverTheTop() {
+		Playfield playfield = new Playfield(W, H);
+		playfield.set(3, 1, 1);
+		assertTrue(playfield.insertRows(2, 0, Game.GARBAGE));
+		assertTrue(playfield.isEmptyRow(0));
+		assertCountsAndHeights(playfield);
+	}
+
+	@Test
+	void holeOutsideThePlayfieldIsRejected() {
+		Playfield playfield = new Playfield(W, H);
+		assertThrows(IndexOutOfBoundsException.class,
+				() -> playfield.insertRows(1, W, Game.GARBAGE));
+		assertThrows(IndexOutOfBoundsException.class,
+				() -> playfield.insertRows(1, -1, Game.GARBAGE));
+	}
+
+	private static void assertCells(int[][] expected, Playfield playfield) {
+		for (int y = 0; y < H; y++)
+			for (int x = 0; x < W; x++)
+				assertEquals(expected[y][x], playfield.get(x, y),
+						"cell " + x + "," + y);
+	}
+
+	/** Check the row counts and column heights against the cells. */
+	private static void assertCountsAndHeights(Playfield playfield) {
+		for (int y = 0; y < H; y++) {
+			int count = 0;
+			for (int x = 0; x < W; x++)
+				if (!playfield.isEmpty(x, y))
+					count++;
+			assertEquals(count, playfield.getRowCount(y), "count of row " + y);
+		}
+		for (int x = 0; x < W; x++) {
+			int top = 0;
+			while (top < H && playfield.isEmpty(x, top))
+				top++;
+			assertEquals(H - top, playfield.getColumnHeight(x),
+					"height of column " + x);
+		}
+	}
+}